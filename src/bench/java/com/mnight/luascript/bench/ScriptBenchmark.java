@@ -0,0 +1,212 @@
+package com.mnight.luascript.bench;
+
+import com.electronwill.nightconfig.core.CommentedConfig;
+import com.mnight.luascript.Config;
+import com.mnight.luascript.core.LuaEngineManager;
+import com.mnight.luascript.core.ScriptCommandRegistry;
+import com.mnight.luascript.core.ScriptEventRecording;
+import com.mnight.luascript.core.ScriptEventRegistry;
+import com.mnight.luascript.core.ScriptScheduler;
+import com.mnight.luascript.core.ScriptTickRegistry;
+import com.mnight.luascript.core.ScriptWorkerPool;
+import com.mnight.luascript.core.profile.LatencyHistogram;
+import com.mnight.luascript.core.profile.ScriptProfiler;
+import com.mojang.brigadier.CommandDispatcher;
+import com.mojang.brigadier.exceptions.CommandSyntaxException;
+import net.minecraft.commands.CommandSource;
+import net.minecraft.commands.CommandSourceStack;
+import net.minecraft.network.chat.Component;
+import net.minecraft.world.phys.Vec2;
+import net.minecraft.world.phys.Vec3;
+import net.neoforged.fml.config.IConfigSpec;
+import net.neoforged.neoforge.common.ModConfigSpec;
+import org.luaj.vm2.LuaTable;
+import org.luaj.vm2.LuaValue;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Runs a real script folder without Minecraft: loads the server scripts, fires synthetic event streams,
+ * runs server ticks and executes commands, then reports throughput and latency percentiles per stream
+ * followed by the {@link ScriptProfiler} sites that cost the most.
+ * <p>
+ * Synthetic events are plain Lua tables shaped like the views scripts get from real events
+ * ({@code player}, {@code pos}, {@code block}, {@code level}). They reach every unfiltered listener;
+ * listeners with a filter table only match real game events and are never called here.
+ * A recording made with {@code /luascript record} replays real traffic, filters included, at full speed.
+ * <pre>
+ * ./gradlew runBenchmark --args="--scripts run/lua_script --events 100000 --event block_break --command 'greet Steve'"
+ * </pre>
+ * Options: {@code --scripts <dir>}, {@code --events <n>} per event name, {@code --ticks <n>},
+ * {@code --warmup <n>} untimed iterations per stream, and the repeatable {@code --event <name>}, {@code --command <line>}
+ * and {@code --replay <recording file>}.
+ */
+public final class ScriptBenchmark {
+    private static final String[] DEFAULT_EVENTS = {"block_break", "player_join"};
+    // Distinct records cycled through, so handlers that key tables by player or position see some variety
+    private static final int RECORDS = 64;
+    private static final int TOP_SITES = 15;
+
+    private ScriptBenchmark() {}
+
+    public static void main(String[] args) throws Exception {
+        Path scripts = Path.of("run/lua_script");
+        int events = 100_000;
+        int ticks = 10_000;
+        int warmup = 20_000;
+        List<String> eventNames = new ArrayList<>();
+        List<String> commands = new ArrayList<>();
+        List<Path> replays = new ArrayList<>();
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--scripts": scripts = Path.of(args[++i]); break;
+                case "--events": events = Integer.parseInt(args[++i]); break;
+                case "--ticks": ticks = Integer.parseInt(args[++i]); break;
+                case "--warmup": warmup = Integer.parseInt(args[++i]); break;
+                case "--event": eventNames.add(args[++i]); break;
+                case "--command": commands.add(args[++i]); break;
+                case "--replay": replays.add(Path.of(args[++i])); break;
+                default: throw new IllegalArgumentException("Unknown option " + args[i]);
+            }
+        }
+        if (eventNames.isEmpty()) eventNames.addAll(List.of(DEFAULT_EVENTS));
+        if (!Files.isDirectory(scripts.resolve("server"))) {
+            throw new IllegalArgumentException(scripts.toAbsolutePath() + " has no server folder");
+        }
+
+        // Must be set before LuaEngineManager is initialized, it resolves the script folder once
+        System.setProperty("luascript.root", scripts.toAbsolutePath().toString());
+        loadDefaultConfig(Config.SPEC);
+        LuaEngineManager.INSTANCE.init();
+        ScriptWorkerPool.INSTANCE.start();
+        LuaEngineManager.INSTANCE.reloadServerScripts();
+
+        CommandDispatcher<CommandSourceStack> dispatcher = new CommandDispatcher<>();
+        ScriptCommandRegistry.INSTANCE.registerAll(dispatcher);
+        CommandSourceStack source = new CommandSourceStack(CommandSource.NULL, Vec3.ZERO, Vec2.ZERO, null, 4,
+                "Bench", Component.literal("Bench"), null, null).withSuppressedOutput();
+
+        LuaValue[] records = new LuaValue[RECORDS];
+        for (int i = 0; i < RECORDS; i++) records[i] = record(i);
+
+        ScriptEventRegistry registry = LuaEngineManager.INSTANCE.server().events();
+        List<Stream> streams = new ArrayList<>();
+        for (String name : eventNames) {
+            int id = ScriptEventRegistry.idOf(name);
+            streams.add(new Stream("event " + name, events, i -> registry.fire(id, records[i % RECORDS])));
+        }
+        for (Path file : replays) {
+            ScriptEventRecording recording = ScriptEventRecording.read(file);
+            if (recording.size() == 0) continue;
+            streams.add(new Stream("replay " + file.getFileName(), recording.size(), i -> recording.fire(registry, i % recording.size())));
+        }
+        long[] tick = {0};
+        streams.add(new Stream("server tick", ticks, i -> {
+            registry.flushBatches();
+            ScriptWorkerPool.INSTANCE.deliverCompleted();
+            ScriptTickRegistry.INSTANCE.tick(tick[0]++);
+            ScriptScheduler.INSTANCE.tick(Config.SCHEDULER_SLICE_MS.get() * 1_000_000L);
+        }));
+        for (String command : commands) {
+            streams.add(new Stream("command /" + command, events, i -> dispatcher.execute(command, source)));
+        }
+
+        for (Stream stream : streams) stream.warmup(warmup);
+        // Warmup calls should not show up in the site table
+        ScriptProfiler.INSTANCE.reset();
+        for (Stream stream : streams) stream.measure();
+
+        System.out.println(String.format(Locale.ROOT, "%-32s %10s %12s %10s %10s %10s %10s",
+                "stream", "calls", "calls/s", "p50 us", "p99 us", "p99.9 us", "max us"));
+        for (Stream stream : streams) stream.report();
+
+        System.out.println();
+        System.out.println(String.format(Locale.ROOT, "%-12s %-48s %10s %10s %10s %10s %8s",
+                "kind", "site", "calls", "total ms", "p99 us", "alloc MB", "errors"));
+        for (ScriptProfiler.Site site : ScriptProfiler.INSTANCE.top(TOP_SITES)) {
+            LatencyHistogram h = site.histogram();
+            System.out.println(String.format(Locale.ROOT, "%-12s %-48s %10d %10.1f %10.1f %10.1f %8d",
+                    site.kind(), site.location(), h.count(), h.totalNanos() / 1e6, h.percentile(0.99) / 1e3,
+                    site.allocatedBytes() / (double) (1 << 20), site.errors()));
+        }
+        ScriptWorkerPool.INSTANCE.stop();
+    }
+
+    private interface Step {
+        void run(int i) throws CommandSyntaxException;
+    }
+
+    private static final class Stream {
+        final String name;
+        final int count;
+        final Step step;
+        final LatencyHistogram latency = new LatencyHistogram();
+        long elapsedNanos;
+
+        Stream(String name, int count, Step step) {
+            this.name = name;
+            this.count = count;
+            this.step = step;
+        }
+
+        void warmup(int iterations) throws CommandSyntaxException {
+            for (int i = 0; i < iterations; i++) step.run(i);
+        }
+
+        void measure() throws CommandSyntaxException {
+            long begin = System.nanoTime();
+            for (int i = 0; i < count; i++) {
+                long start = System.nanoTime();
+                step.run(i);
+                latency.record(System.nanoTime() - start);
+            }
+            elapsedNanos = System.nanoTime() - begin;
+        }
+
+        void report(){
+            System.out.println(String.format(Locale.ROOT, "%-32s %10d %12.0f %10.2f %10.2f %10.2f %10.2f",
+                    name, latency.count(), count / (elapsedNanos / 1e9),
+                    latency.percentile(0.5) / 1e3, latency.percentile(0.99) / 1e3,
+                    latency.percentile(0.999) / 1e3, latency.maxNanos() / 1e3));
+        }
+    }
+
+    // Same shape as the views built by LuaViews, with values that vary per record
+    private static LuaValue record(int i){
+        LuaTable pos = new LuaTable();
+        pos.set("x", i * 16);
+        pos.set("y", 64 + i % 8);
+        pos.set("z", -i * 16);
+
+        LuaTable player = new LuaTable();
+        player.set("name", "Bench" + (i % 8));
+        player.set("uuid", String.format(Locale.ROOT, "00000000-0000-0000-0000-%012d", i % 8));
+        player.set("x", pos.get("x"));
+        player.set("y", pos.get("y"));
+        player.set("z", pos.get("z"));
+        player.set("level", "minecraft:overworld");
+
+        LuaTable event = new LuaTable();
+        event.set("player", player);
+        event.set("pos", pos);
+        event.set("block", i % 2 == 0 ? "minecraft:stone" : "minecraft:oak_log");
+        event.set("level", "minecraft:overworld");
+        return event;
+    }
+
+    // Every config value at its default, without a config file
+    private static void loadDefaultConfig(ModConfigSpec spec){
+        CommentedConfig config = CommentedConfig.inMemory();
+        spec.acceptConfig(new IConfigSpec.ILoadedConfig() {
+            public CommentedConfig config() {
+                return config;
+            }
+
+            public void save() {}
+        });
+    }
+}
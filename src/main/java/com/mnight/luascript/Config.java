@@ -0,0 +1,63 @@
+package com.mnight.luascript;
+
+import net.neoforged.neoforge.common.ModConfigSpec;
+
+// Server-side settings, stored per world in serverconfig/luascript-server.toml
+public class Config {
+    private static final ModConfigSpec.Builder BUILDER = new ModConfigSpec.Builder();
+
+    public static final ModConfigSpec.LongValue HANDLER_INSTRUCTION_LIMIT = BUILDER
+            .comment("Approximate number of Lua instructions a single event handler call may run before it is aborted.",
+                    "Scripts can override this per event with events.budget(). 0 disables the limit.")
+            .defineInRange("handlerInstructionLimit", 10_000_000L, 0L, Long.MAX_VALUE);
+
+    public static final ModConfigSpec.IntValue HANDLER_TIME_LIMIT_MS = BUILDER
+            .comment("Wall-clock milliseconds a single event handler call may take before it is aborted.",
+                    "Scripts can override this per event with events.budget(). 0 disables the limit.")
+            .defineInRange("handlerTimeLimitMs", 50, 0, 60_000);
+
+    public static final ModConfigSpec.IntValue HANDLER_MEMORY_LIMIT_MB = BUILDER
+            .comment("Approximate megabytes of tables and large strings a single event handler call, task resume",
+                    "or worker job may allocate before it is aborted. 0 disables the limit.",
+                    "The count restarts with every call, memory kept across calls is capped by scriptMemoryLimitMb.")
+            .defineInRange("handlerMemoryLimitMb", 64, 0, 65_536);
+
+    public static final ModConfigSpec.IntValue SCRIPT_MEMORY_LIMIT_MB = BUILDER
+            .comment("Approximate megabytes of tables, large strings and closures one script file may keep across",
+                    "its loading, handlers, ticks, tasks and commands. Checked by counting what the script can still reach",
+                    "whenever its allocations add up past the limit, so it may run over by up to half of it.",
+                    "The shared table and worker jobs are not counted. 0 disables the limit.")
+            .defineInRange("scriptMemoryLimitMb", 256, 0, 65_536);
+
+    public static final ModConfigSpec.IntValue HANDLER_FAILURE_LIMIT = BUILDER
+            .comment("Consecutive errors after which an event handler or tick callback is disabled until the next reload.",
+                    "Errors of one handler are logged at most every 10 seconds either way. 0 never disables handlers.")
+            .defineInRange("handlerFailureLimit", 20, 0, 1_000_000);
+
+    public static final ModConfigSpec.IntValue SCHEDULER_SLICE_MS = BUILDER
+            .comment("Milliseconds per server tick spent resuming tasks started with scheduler.spawn().",
+                    "Tasks that do not fit are resumed on a later tick. Each resume is also bound by the handler limits above.")
+            .defineInRange("schedulerSliceMs", 5, 1, 1_000);
+
+    public static final ModConfigSpec.IntValue WORKER_THREADS = BUILDER
+            .comment("Threads running functions passed to workers.submit(). 0 uses half of the available processors.")
+            .defineInRange("workerThreads", 0, 0, 64);
+
+    public static final ModConfigSpec.IntValue WORKER_TIME_LIMIT_MS = BUILDER
+            .comment("Wall-clock milliseconds a single worker job may run before it is aborted. 0 disables the limit.")
+            .defineInRange("workerTimeLimitMs", 10_000, 0, 600_000);
+
+    public static final ModConfigSpec.IntValue STORAGE_COMPACT_MINUTES = BUILDER
+            .comment("Minutes between checks whether the storage log has enough overwritten data to compact it. 0 disables automatic compaction.")
+            .defineInRange("storageCompactMinutes", 10, 0, 1_440);
+
+    public static final ModConfigSpec SPEC = BUILDER.build();
+
+    /**
+     * Value of a setting, or its default while no server config is loaded, e.g. for client scripts in the main menu.
+     * Only needed on paths the client runtime reaches; server-only code can call get() directly.
+     */
+    public static <T> T valueOrDefault(ModConfigSpec.ConfigValue<T> value){
+        return SPEC.isLoaded() ? value.get() : value.getDefault();
+    }
+}
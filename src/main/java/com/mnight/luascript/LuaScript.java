@@ -1,9 +1,14 @@
 package com.mnight.luascript;
 
 import com.mnight.luascript.core.LuaEngineManager;
+import com.mnight.luascript.core.LuaScriptCommand;
 import com.mnight.luascript.core.ScriptCommandRegistry;
-import com.mnight.luascript.core.ScriptEventRegistry;
 import com.mnight.luascript.core.ScriptRecipeRegistry;
+import com.mnight.luascript.core.ScriptEventRecorder;
+import com.mnight.luascript.core.ScriptScheduler;
+import com.mnight.luascript.core.ScriptTickRegistry;
+import com.mnight.luascript.core.ScriptWorkerPool;
+import com.mnight.luascript.core.storage.ScriptStorage;
 import com.mojang.logging.LogUtils;
 import net.minecraft.server.packs.resources.ResourceManager;
 import net.minecraft.server.packs.resources.ResourceManagerReloadListener;
@@ -11,14 +16,19 @@ import net.neoforged.bus.api.IEventBus;
 import net.neoforged.bus.api.SubscribeEvent;
 import net.neoforged.fml.ModContainer;
 import net.neoforged.fml.common.Mod;
+import net.neoforged.fml.config.ModConfig;
 import net.neoforged.fml.event.lifecycle.FMLClientSetupEvent;
 import net.neoforged.fml.event.lifecycle.FMLCommonSetupEvent;
+import net.neoforged.neoforge.client.event.ClientTickEvent;
 import net.neoforged.neoforge.client.event.RegisterClientReloadListenersEvent;
 import net.neoforged.neoforge.common.NeoForge;
 import net.neoforged.neoforge.event.AddReloadListenerEvent;
 import net.neoforged.neoforge.event.RegisterCommandsEvent;
-import net.neoforged.neoforge.event.entity.player.PlayerEvent;
-import net.neoforged.neoforge.event.level.BlockEvent;
+import net.neoforged.neoforge.event.server.ServerAboutToStartEvent;
+import net.neoforged.neoforge.event.server.ServerStartedEvent;
+import net.neoforged.neoforge.event.server.ServerStoppedEvent;
+import net.neoforged.neoforge.event.server.ServerStoppingEvent;
+import net.neoforged.neoforge.event.tick.ServerTickEvent;
 import org.slf4j.Logger;
 
 // The value here should match an entry in the META-INF/neoforge.mods.toml file
@@ -41,6 +51,9 @@ public class LuaScript {
         // Do not add this line if there are no @SubscribeEvent-annotated functions in this class, like onServerStarting() below.
         NeoForge.EVENT_BUS.register(this);
         NeoForge.EVENT_BUS.addListener(this::onRegisterCommands);
+
+        // Register our mod's ModConfigSpec so that FML can create and load the config file for us
+        modContainer.registerConfig(ModConfig.Type.SERVER, Config.SPEC);
     }
 
     private void commonSetup(final FMLCommonSetupEvent event) {
@@ -48,6 +61,10 @@ public class LuaScript {
     }
     private void clientSetup(final FMLClientSetupEvent event) {
         LuaEngineManager.INSTANCE.reloadClientScripts();
+        NeoForge.EVENT_BUS.addListener((ClientTickEvent.Post tick) -> {
+            LuaEngineManager.INSTANCE.client().events().flushBatches();
+            LuaEngineManager.INSTANCE.applyClientFileChanges();
+        });
     }
 
     // --- RELOAD LISTENERS ---
@@ -75,18 +92,48 @@ public class LuaScript {
             }
         });
     }
-    // --- GAMEPLAY EVENTS (Triggers for Lua) ---
     @SubscribeEvent
-    public void onBlockBreak(BlockEvent.BreakEvent event) {
-        ScriptEventRegistry.INSTANCE.fire("block_break", event);
+    public void onServerAboutToStart(ServerAboutToStartEvent event) {
+        ScriptStorage.INSTANCE.open(event.getServer());
+    }
+
+    // 3. Hot Reload (edited files under lua_script/server)
+    @SubscribeEvent
+    public void onServerStarted(ServerStartedEvent event) {
+        LuaEngineManager.INSTANCE.startWatching();
+        ScriptWorkerPool.INSTANCE.start();
+    }
+
+    @SubscribeEvent
+    public void onServerStopping(ServerStoppingEvent event) {
+        LuaEngineManager.INSTANCE.stopWatching();
+        ScriptWorkerPool.INSTANCE.stop();
+        ScriptEventRecorder.INSTANCE.close();
+    }
+
+    @SubscribeEvent
+    public void onServerStopped(ServerStoppedEvent event) {
+        // After the stopping event players are still saved and logged out, and scripts may still write
+        ScriptStorage.INSTANCE.close();
     }
 
     @SubscribeEvent
-    public void onPlayerJoin(PlayerEvent.PlayerLoggedInEvent event) {
-        ScriptEventRegistry.INSTANCE.fire("player_join", event);
+    public void onServerTick(ServerTickEvent.Post event) {
+        // Replayed events count as this tick's events, so batched listeners get them right after
+        ScriptEventRecorder.INSTANCE.tick();
+        // Events batched during this tick are delivered before anything else runs
+        LuaEngineManager.INSTANCE.server().events().flushBatches();
+        LuaEngineManager.INSTANCE.applyFileChanges(event.getServer());
+        // Deliver first, so tasks awaiting a job see it done when they resume
+        ScriptWorkerPool.INSTANCE.deliverCompleted();
+        ScriptTickRegistry.INSTANCE.tick(event.getServer().getTickCount());
+        ScriptScheduler.INSTANCE.tick(Config.SCHEDULER_SLICE_MS.get() * 1_000_000L);
     }
 
+    // Gameplay events for Lua are subscribed on demand by ScriptEventCatalog
+
     public void onRegisterCommands(RegisterCommandsEvent event) {
+        LuaScriptCommand.register(event.getDispatcher());
         ScriptCommandRegistry.INSTANCE.registerAll(event.getDispatcher());
     }
 }
@@ -1,38 +1,83 @@
 package com.mnight.luascript.core;
 
+import com.mnight.luascript.core.profile.ScriptFlightEvents;
+import com.mnight.luascript.core.profile.ScriptProfiler;
+import com.mnight.luascript.core.storage.ScriptStorage;
+import net.minecraft.server.MinecraftServer;
+import net.minecraft.server.level.ServerPlayer;
 import net.neoforged.fml.loading.FMLPaths;
+import net.neoforged.fml.util.thread.EffectiveSide;
+import org.luaj.vm2.ExecutionBudget;
 import org.luaj.vm2.Globals;
+import org.luaj.vm2.LuaError;
 import org.luaj.vm2.LuaValue;
+import org.luaj.vm2.Prototype;
 import org.luaj.vm2.lib.jse.CoerceJavaToLua;
-import org.luaj.vm2.lib.jse.JsePlatform;
 
 import java.io.File;
+import java.io.IOException;
 import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
 import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.ForkJoinWorkerThread;
 
 public class LuaEngineManager {
     public static final LuaEngineManager INSTANCE = new LuaEngineManager();
 
-    private Globals globals;
+    // Compiles scripts during reload; daemon workers, so it never blocks shutdown
+    private static final ForkJoinPool COMPILE_POOL = new ForkJoinPool(
+            Math.max(1, Runtime.getRuntime().availableProcessors() - 1),
+            pool -> {
+                ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+                thread.setName("LuaScript-Compile-" + thread.getPoolIndex());
+                return thread;
+            },
+            null, false);
+
     private final Path rootPath;
+    private final ScriptFileWatcher watcher;
+
+    // Independent Lua states for the logical server and client, see LuaRuntime
+    private LuaRuntime server;
+    private LuaRuntime client;
+    // Set by the server thread when a lib module changed; the client runtime belongs to the client thread
+    private volatile boolean clientStale;
 
     private LuaEngineManager() {
-        // Points to config/lua_scripts
-        this.rootPath = FMLPaths.GAMEDIR.get().resolve("lua_script");
+        // Points to <game>/lua_script, or to the folder named by -Dluascript.root (used by the benchmark harness)
+        String root = System.getProperty("luascript.root");
+        this.rootPath = root != null ? Path.of(root) : FMLPaths.GAMEDIR.get().resolve("lua_script");
+        this.watcher = new ScriptFileWatcher(rootPath, List.of(rootPath, rootPath.resolve("server")), List.of(rootPath.resolve("lib")));
     }
 
     public void init(){
-        // Initialize Lua standard library
-        this.globals = JsePlatform.standardGlobals();
+        // One cache per script folder, so a client reload never prunes server entries and vice versa
+        this.server = new LuaRuntime("server", new ScriptCompileCache(rootPath.resolve(".cache/server")));
+        this.client = new LuaRuntime("client", new ScriptCompileCache(rootPath.resolve(".cache/client")));
+        ScriptModuleLoader.INSTANCE.init(rootPath.resolve("lib"));
+        ScriptModuleLoader.INSTANCE.install(server);
+        ScriptModuleLoader.INSTANCE.install(client);
 
-        // Bind the Event Registry to Lua as a global variable "_REGISTRY"
-        globals.set("_REGISTRY", CoerceJavaToLua.coerce(ScriptEventRegistry.INSTANCE));
+        // Commands, recipes, tasks, workers, storage and tick callbacks only exist on the server side
+        Globals globals = server.globals();
         globals.set("commands", CoerceJavaToLua.coerce(ScriptCommandRegistry.INSTANCE));
         globals.set("recipes", CoerceJavaToLua.coerce(ScriptRecipeRegistry.INSTANCE));
+        globals.set("scheduler", ScriptScheduler.INSTANCE.createLibrary(globals));
+        globals.set("workers", ScriptWorkerPool.INSTANCE.createLibrary(globals));
+        globals.set("storage", ScriptStorage.INSTANCE.createLibrary());
+        globals.set("ticks", ScriptTickRegistry.INSTANCE.createLibrary(globals));
 
         // Create folders
         ensureDirectory("server");
         ensureDirectory("client");
+        ensureDirectory("lib");
 
         // Auto-generate api.lua if missing
         createApiFile();
@@ -44,38 +89,66 @@ public class LuaEngineManager {
 
     public void reloadServerScripts(){
         System.out.println("[LuaScript] Reloading SERVER scripts");
+        long mark = ScriptProfiler.INSTANCE.mark();
         // Important: Clear old listeners!
-        ScriptEventRegistry.INSTANCE.clear();
+        server.events().clear();
+        server.resetShared();
+        ScriptModuleLoader.INSTANCE.forget(server);
         ScriptCommandRegistry.INSTANCE.clear();
+        ScriptRecipeRegistry.INSTANCE.clear();
+        ScriptScheduler.INSTANCE.clear();
+        ScriptTickRegistry.INSTANCE.clear();
+        ScriptWorkerPool.INSTANCE.clear();
 
         // Load API wrapper first
-        loadApiFile();
+        loadApiFile(server);
 
         // Load user scripts
-        loadScriptsFromFolder("server");
+        loadScriptsFromFolder(server);
 
+        // Drop cache entries of scripts that were edited or deleted, and the profiler sites of callbacks that are gone
+        server.cache().prune();
+        ScriptProfiler.INSTANCE.sweep(mark, owner -> owner.startsWith("server/"));
     }
 
     /**
      * Reloads all scripts in the 'client' folder.
      */
     public void reloadClientScripts(){
+        clientStale = false;
         System.out.println("[LuaScript] Reloading CLIENT scripts");
-        // Note: For client visuals, we might not need to clear event registry
-        // if we separate client/server registries later, but for now this is fine.
-        loadScriptsFromFolder("client");
+        long mark = ScriptProfiler.INSTANCE.mark();
+        client.events().clear();
+        client.resetShared();
+        ScriptModuleLoader.INSTANCE.forget(client);
+        loadApiFile(client);
+        loadScriptsFromFolder(client);
+        client.cache().prune();
+        ScriptProfiler.INSTANCE.sweep(mark, owner -> owner.startsWith("client/"));
     }
 
-    private void loadScriptsFromFolder(String subFolder){
+    private void loadScriptsFromFolder(LuaRuntime runtime){
+        String subFolder = runtime.name();
         File folder = rootPath.resolve(subFolder).toFile();
         File[] files = folder.listFiles((dir, name) -> name.endsWith(".lua"));
 
         if (files == null) return;
+        // Files run after the scripts they name with @depends, otherwise by name, never in file system order
+        List<File> order = ScriptLoadOrder.sort(files);
+
+        // Phase 1: compile every file in parallel, in run order so the first ones are ready first.
+        // LuaC does not touch the shared Globals.
+        ScriptCompileCache cache = runtime.cache();
+        List<ForkJoinTask<Prototype>> compiled = new ArrayList<>(order.size());
+        for (File file : order) {
+            compiled.add(COMPILE_POOL.submit(() -> cache.load(file.toPath(), chunkName(file))));
+        }
 
-        for (File file : files) {
+        // Phase 2: run the chunks one by one on the calling thread; a chunk only waits for its own compilation
+        for (int i = 0; i < order.size(); i++) {
+            File file = order.get(i);
             try {
-                LuaValue chunk = globals.loadfile(file.getAbsolutePath());
-                chunk.call();
+                runScript(runtime, file, awaitCompiled(compiled.get(i)));
                 System.out.println("[LuaScript] Loaded " + subFolder + "/" + file.getName());
             } catch (Exception e) {
                 System.err.println("[LuaScript] Failed to load " + file.getName());
@@ -84,35 +157,225 @@ public class LuaEngineManager {
         }
     }
 
+    public LuaRuntime server(){
+        return server;
+    }
+
+    public LuaRuntime client(){
+        return client;
+    }
+
+    /**
+     * Returns the server script file (relative to lua_script) whose chunk is running, or null outside of loading.
+     * Used by the server-only registries: commands, recipes and scheduled tasks.
+     */
+    public String currentScript(){
+        return server.currentScript();
+    }
+
+    /**
+     * Fires a game event into the runtime of the side it was posted on.
+     * Events posted on the server thread never reach client scripts and vice versa.
+     */
+    public void dispatch(int eventId, Object event){
+        LuaRuntime runtime = EffectiveSide.get().isServer() ? server : client;
+        if (runtime != null) runtime.events().fire(eventId, event);
+    }
+
+    /**
+     * Reloads the client scripts after a lib module they may require changed on disk. Polled every client tick.
+     */
+    public void applyClientFileChanges(){
+        if (clientStale) reloadClientScripts();
+    }
+
+    public void startWatching(){
+        watcher.start();
+    }
+
+    public void stopWatching(){
+        watcher.stop();
+    }
+
+    /**
+     * Hot reload, polled every server tick. Re-runs only the server scripts that changed on disk, and the scripts
+     * depending on them through {@code @depends}, after unregistering the listeners, commands and recipes those
+     * files had contributed.
+     * A change to api.lua or anywhere under lib reloads every server script, and the client scripts on the next client tick.
+     */
+    public void applyFileChanges(MinecraftServer server){
+        List<Path> changed = watcher.drainSettled();
+        if (changed.isEmpty()) return;
+
+        long start = System.nanoTime();
+        Path serverDir = rootPath.resolve("server");
+        Path libDir = rootPath.resolve("lib");
+        if (changed.contains(rootPath) || changed.contains(rootPath.resolve("api.lua"))
+                || changed.stream().anyMatch(file -> file.startsWith(libDir))) {
+            // api.lua and lib modules may be used by any script (or change events were lost): patch everything
+            reloadServerScripts();
+            clientStale = true;
+        } else {
+            long mark = ScriptProfiler.INSTANCE.mark();
+            Set<String> reloaded = new HashSet<>();
+            Set<String> changedNames = new HashSet<>();
+            for (Path file : changed) {
+                if (!serverDir.equals(file.getParent())) continue;
+                changedNames.add(file.getFileName().toString());
+                if (Files.isRegularFile(file)) continue;
+
+                String owner = ownerOf(file.toFile());
+                reloaded.add(owner);
+                unload(owner);
+                this.server.dropAccount(owner);
+                System.out.println("[LuaScript] Unloaded " + owner);
+            }
+            // Scripts declaring @depends on a changed file run again after it, in load order
+            File[] files = serverDir.toFile().listFiles((dir, name) -> name.endsWith(".lua"));
+            for (File file : ScriptLoadOrder.affected(files != null ? files : new File[0], changedNames)) {
+                String owner = ownerOf(file);
+                reloaded.add(owner);
+                unload(owner);
+                try {
+                    runScript(this.server, file, this.server.cache().load(file.toPath(), chunkName(file)));
+                    System.out.println("[LuaScript] Reloaded " + owner);
+                } catch (Exception e) {
+                    System.err.println("[LuaScript] Failed to reload " + owner);
+                    e.printStackTrace();
+                }
+            }
+            ScriptProfiler.INSTANCE.sweep(mark, reloaded::contains);
+        }
+
+        ScriptRecipeRegistry.INSTANCE.apply(server.getRecipeManager());
+        if (ScriptCommandRegistry.INSTANCE.registerAll(server.getCommands().getDispatcher()) > 0) {
+            // New command names have to be pushed to connected clients
+            for (ServerPlayer player : server.getPlayerList().getPlayers()) {
+                server.getCommands().sendCommands(player);
+            }
+        }
+        System.out.println("[LuaScript] Hot reload took " + (System.nanoTime() - start) / 1_000_000 + " ms");
+    }
+
+    private void runScript(LuaRuntime runtime, File file, Prototype prototype){
+        String previous = runtime.loadingScript;
+        runtime.loadingScript = ownerOf(file);
+        ScriptProfiler.Site site = ScriptProfiler.INSTANCE.site("chunk", runtime.loadingScript);
+        // api.lua defines the shared helpers, every other file gets an environment of its own
+        Globals globals = runtime.globals();
+        boolean api = file.getName().equals("api.lua") && file.getParentFile().equals(rootPath.toFile());
+        LuaValue env = api ? globals : runtime.newEnvironment();
+        // Loading has no instruction or time limit, but what it allocates counts towards the memory the file keeps.
+        // api.lua only fills the globals, which belong to no script
+        ExecutionBudget budget = api ? new ExecutionBudget(0, 0) : runtime.startAccount(runtime.loadingScript, env).newBudget(0, 0, 0);
+        ExecutionBudget previousBudget = ExecutionBudget.install(globals, budget);
+        long start = System.nanoTime();
+        ScriptFlightEvents.Call event = site.begin();
+        String outcome = "error";
+        try {
+            globals.loader.load(prototype, chunkName(file), env, globals).call();
+            outcome = "ok";
+        } catch (IOException e) {
+            throw new LuaError(e);
+        } finally {
+            ExecutionBudget.install(globals, previousBudget);
+            site.record(start, event, outcome);
+            site.recordAllocation(budget.allocatedBytes());
+            runtime.loadingScript = previous;
+        }
+    }
+
+    // Unregisters everything one server script file contributed, before it is reloaded or after it was deleted
+    private void unload(String owner){
+        server.events().clear(owner);
+        ScriptCommandRegistry.INSTANCE.clear(owner);
+        ScriptRecipeRegistry.INSTANCE.clear(owner);
+        ScriptScheduler.INSTANCE.clear(owner);
+        ScriptTickRegistry.INSTANCE.clear(owner);
+        ScriptWorkerPool.INSTANCE.clear(owner);
+    }
+
+    private String ownerOf(File file){
+        return rootPath.toAbsolutePath().relativize(file.toPath().toAbsolutePath()).toString().replace('\\', '/');
+    }
+
+    /**
+     * Shortens a chunk source path to its location under lua_script, e.g. "server/ores.lua".
+     */
+    public String scriptName(String sourcePath){
+        try {
+            Path path = Path.of(sourcePath);
+            if (path.isAbsolute() && path.startsWith(rootPath.toAbsolutePath())) return ownerOf(path.toFile());
+        } catch (InvalidPathException ignored) {}
+        return sourcePath;
+    }
+
+    private static Prototype awaitCompiled(ForkJoinTask<Prototype> task) throws Exception {
+        try {
+            return task.get();
+        } catch (ExecutionException e) {
+            // Surface the compile error itself (usually a LuaError) instead of the wrapper
+            if (e.getCause() instanceof Exception cause) throw cause;
+            throw e;
+        }
+    }
+
+    private static final String API_HEADER = "-- LuaMod API Wrapper (Auto-generated)\n";
+
+    /**
+     * Writes api.lua when it is missing, or refreshes it when it still carries the auto-generated header.
+     * Remove the header line to keep a customised copy.
+     */
     private void createApiFile(){
         File apiFile = rootPath.resolve("api.lua").toFile();
-        if(!apiFile.exists()){
-            try {
-                String content =
-                        "-- LuaMod API Wrapper (Auto-generated)\n" +
-                                "events = {}\n\n" +
-                                "function events.listen(eventName, callback)\n" +
-                                "    _REGISTRY:register(eventName, callback)\n" +
-                                "end\n\n" +
-                                "-- Shortcuts\n" +
-                                "function events.onBlockBreak(callback) events.listen('block_break', callback) end\n" +
-                                "function events.onPlayerJoin(callback) events.listen('player_join', callback) end\n";
-                Files.write(apiFile.toPath(), content.getBytes());
-            } catch (Exception e) { e.printStackTrace(); }
-        }
+        try {
+            String content =
+                    API_HEADER +
+                            "-- Each script file has its own globals; put what other scripts need into the 'shared' table\n" +
+                            "-- Library tables (string, math, events, package.loaded, ...) are read-only in scripts, writing to them is an error;\n" +
+                            "-- reading them with rawget, next or pairs works as usual\n" +
+                            "-- Scripts run in name order; a '-- @depends other' line at the top of a script runs it after other.lua\n\n" +
+                            "events = {}\n\n" +
+                            "-- filter (optional): { block = ids, item = ids, dimension = ids, permission = level }\n" +
+                            "-- e.g. events.listen('block_break', fn, { block = {'diamond_ore', 'deepslate_diamond_ore'} })\n" +
+                            "function events.listen(eventName, callback, filter)\n" +
+                            "    _REGISTRY:register(eventName, callback, filter)\n" +
+                            "end\n\n" +
+                            "-- Limit each handler call for an event (0 = no limit)\n" +
+                            "function events.budget(eventName, instructions, millis)\n" +
+                            "    _REGISTRY:setBudget(eventName, instructions or 0, millis or 0)\n" +
+                            "end\n\n" +
+                            "-- Receives the events of a whole tick at once as an array, after the tick. The records have no cancel and\n" +
+                            "-- leave out events another listener cancelled; player x/y/z and level are read when the tick ends\n" +
+                            "function events.listenBatched(eventName, callback, filter)\n" +
+                            "    _REGISTRY:registerBatched(eventName, callback, filter)\n" +
+                            "end\n\n" +
+                            "-- Shortcuts\n" +
+                            "function events.onBlockBreak(callback, filter) events.listen('block_break', callback, filter) end\n" +
+                            "function events.onPlayerJoin(callback, filter) events.listen('player_join', callback, filter) end\n";
+            if (apiFile.exists()) {
+                String existing = Files.readString(apiFile.toPath());
+                if (!existing.startsWith(API_HEADER) || existing.equals(content)) return;
+            }
+            Files.write(apiFile.toPath(), content.getBytes());
+        } catch (Exception e) { e.printStackTrace(); }
     }
 
-    private void loadApiFile(){
+    private void loadApiFile(LuaRuntime runtime){
         File apiFile = rootPath.resolve("api.lua").toFile();
         if (apiFile.exists()){
             try {
-                globals.loadfile(apiFile.getAbsolutePath()).call();
+                runScript(runtime, apiFile, runtime.cache().load(apiFile.toPath(), chunkName(apiFile)));
             } catch (Exception e) {
                 System.err.println("[LuaScript] Failed to load api.lua");
             }
         }
     }
 
+    private static String chunkName(File file){
+        return "@" + file.getAbsolutePath();
+    }
+
     private void ensureDirectory(String subFolder){
         File dir = rootPath.resolve(subFolder).toFile();
         if(!dir.exists()) dir.mkdirs();
@@ -0,0 +1,159 @@
+package com.mnight.luascript.core;
+
+import com.mnight.luascript.Config;
+import org.luaj.vm2.Globals;
+import org.luaj.vm2.LuaTable;
+import org.luaj.vm2.LuaValue;
+import org.luaj.vm2.ReadOnlyTable;
+import org.luaj.vm2.lib.TwoArgFunction;
+import org.luaj.vm2.lib.jse.CoerceJavaToLua;
+import org.luaj.vm2.lib.jse.JsePlatform;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The Lua state of one logical side: its own {@link Globals}, event listeners and compile cache.
+ * The server and client runtimes share no tables, so in singleplayer the server thread and the
+ * client thread can both run scripts at the same time. Each runtime must only be used from its own side.
+ * <p>
+ * Every script file runs in its own environment table from {@link #newEnvironment()}, so the globals
+ * one file defines are invisible to the others. Files that want to share values use the {@code shared} table.
+ * Library tables such as {@code string} or {@code events}, and the tables nested in them, are handed to scripts
+ * as read-only views ({@link ReadOnlyTable}), so one file cannot change them for all the others.
+ * The memory each file keeps across calls is capped by its {@link ScriptMemoryAccount}.
+ */
+public class LuaRuntime {
+    private final String name;
+    private final Globals globals;
+    private final ScriptEventRegistry events;
+    private final ScriptCompileCache cache;
+    // Shared by every script environment: reads fall through to the globals, the metatable itself is locked
+    private final LuaTable environmentMetatable = new LuaTable();
+    private static final LuaValue SHARED = LuaValue.valueOf("shared");
+    // Read-only views of the global tables, replaced on every full reload with the shared table
+    private ReadOnlyTable libraries;
+
+    // Script file whose chunk is currently running, used to track what each file registers
+    String loadingScript;
+    // Names of the lib modules required since the last full reload, see ScriptModuleLoader
+    final Set<String> modules = new HashSet<>();
+    // Script file -> memory it keeps, replaced whenever the file runs again
+    private final Map<String, ScriptMemoryAccount> accounts = new HashMap<>();
+
+    LuaRuntime(String name, ScriptCompileCache cache) {
+        this.name = name;
+        this.cache = cache;
+        this.globals = JsePlatform.standardGlobals();
+        this.events = new ScriptEventRegistry(this);
+
+        // Bind the Event Registry to Lua as a global variable "_REGISTRY"
+        globals.set("_REGISTRY", CoerceJavaToLua.coerce(events));
+
+        environmentMetatable.rawset(LuaValue.INDEX, new GlobalLookup());
+        environmentMetatable.rawset(LuaValue.METATABLE, LuaValue.FALSE);
+        resetShared();
+    }
+
+    /**
+     * Creates an empty environment whose lookups fall back to the globals of this runtime.
+     * Assignments stay in the environment, and global tables other than {@code shared} are read through
+     * read-only views, so the standard library and api.lua cannot be replaced or changed by a script.
+     * Only allocates one table up front, cheap enough to create per script file or per player;
+     * each global is copied into the environment the first time it is read, so later reads are plain table hits.
+     */
+    public LuaTable newEnvironment(){
+        LuaTable env = new LuaTable();
+        env.setmetatable(environmentMetatable);
+        env.rawset("_G", env);
+        return env;
+    }
+
+    // __index of every environment: caches the global in the environment, tables as read-only views.
+    // shared is looked up every time, and nil is not cached so a global defined later is still found
+    private final class GlobalLookup extends TwoArgFunction {
+        public LuaValue call(LuaValue env, LuaValue key) {
+            LuaValue value = globals.rawget(key);
+            if (value.isnil() || SHARED.raweq(key)) return value;
+            value = libraries.view(value, key.tojstring());
+            env.rawset(key, value);
+            return value;
+        }
+    }
+
+    /**
+     * Replaces the {@code shared} table scripts use to exchange values, and the read-only views of the
+     * global tables, which may have been replaced by api.lua. Called on every full reload.
+     */
+    void resetShared(){
+        globals.set("shared", new LuaTable());
+        libraries = new ReadOnlyTable(globals, "_G");
+        accounts.clear();
+    }
+
+    /**
+     * Starts a new memory account for a script file that is about to run in an environment,
+     * dropping what its previous run was charged.
+     */
+    ScriptMemoryAccount startAccount(String owner, LuaValue environment){
+        ScriptMemoryAccount account = newAccount();
+        account.setEnvironment(environment);
+        accounts.put(owner, account);
+        return account;
+    }
+
+    /**
+     * Returns the memory account of a script file, or null for code that belongs to no file.
+     * Lib modules get an account of their own the first time one of their callbacks is registered.
+     */
+    ScriptMemoryAccount account(String owner){
+        if (owner == null) return null;
+        return accounts.computeIfAbsent(owner, k -> newAccount());
+    }
+
+    /**
+     * Forgets the memory account of a script file that was deleted.
+     */
+    void dropAccount(String owner){
+        accounts.remove(owner);
+    }
+
+    // Read when the account starts: client scripts run before any server config is loaded
+    private ScriptMemoryAccount newAccount(){
+        return new ScriptMemoryAccount(this, (long) Config.valueOrDefault(Config.SCRIPT_MEMORY_LIMIT_MB) << 20);
+    }
+
+    // Tables every script sees, not charged to any of them
+    List<LuaValue> commonTables(){
+        return List.of(globals, globals.rawget(SHARED), environmentMetatable);
+    }
+
+    /**
+     * "server" or "client", also the name of the script folder under lua_script.
+     */
+    public String name(){
+        return name;
+    }
+
+    public Globals globals(){
+        return globals;
+    }
+
+    public ScriptEventRegistry events(){
+        return events;
+    }
+
+    ScriptCompileCache cache(){
+        return cache;
+    }
+
+    /**
+     * Returns the script file (relative to lua_script) whose chunk is running, or null outside of loading.
+     */
+    public String currentScript(){
+        return loadingScript;
+    }
+}
@@ -0,0 +1,134 @@
+package com.mnight.luascript.core;
+
+import com.mnight.luascript.core.profile.LatencyHistogram;
+import com.mnight.luascript.core.profile.ScriptProfiler;
+import com.mojang.brigadier.CommandDispatcher;
+import com.mojang.brigadier.arguments.IntegerArgumentType;
+import com.mojang.brigadier.arguments.StringArgumentType;
+import com.mojang.brigadier.context.CommandContext;
+import net.minecraft.commands.CommandSourceStack;
+import net.minecraft.commands.Commands;
+import net.minecraft.network.chat.Component;
+import net.minecraft.world.level.storage.LevelResource;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.List;
+
+/**
+ * The built-in {@code /luascript} admin command: {@code profile}, {@code record start|stop} and {@code replay <name> [paced]}.
+ */
+public class LuaScriptCommand {
+    private static final int DEFAULT_TOP = 10;
+
+    public static void register(CommandDispatcher<CommandSourceStack> dispatcher){
+        dispatcher.register(Commands.literal("luascript")
+                .requires(source -> source.hasPermission(2))
+                .then(Commands.literal("profile")
+                        .executes(context -> profile(context, DEFAULT_TOP))
+                        .then(Commands.argument("top", IntegerArgumentType.integer(1, 100))
+                                .executes(context -> profile(context, IntegerArgumentType.getInteger(context, "top"))))
+                        .then(Commands.literal("reset")
+                                .executes(LuaScriptCommand::resetProfile)))
+                .then(Commands.literal("record")
+                        .then(Commands.literal("start")
+                                .then(Commands.argument("name", StringArgumentType.word())
+                                        .executes(LuaScriptCommand::startRecording)))
+                        .then(Commands.literal("stop")
+                                .executes(LuaScriptCommand::stopRecording)))
+                .then(Commands.literal("replay")
+                        .then(Commands.argument("name", StringArgumentType.word())
+                                .executes(context -> replay(context, false))
+                                .then(Commands.literal("paced")
+                                        .executes(context -> replay(context, true)))))
+        );
+    }
+
+    private static int profile(CommandContext<CommandSourceStack> context, int top){
+        CommandSourceStack source = context.getSource();
+        List<ScriptProfiler.Site> sites = ScriptProfiler.INSTANCE.top(top);
+        if (sites.isEmpty()) {
+            source.sendSuccess(() -> Component.literal("[LuaScript] No Lua calls recorded yet"), false);
+            return 0;
+        }
+        source.sendSuccess(() -> Component.literal("§e[LuaScript] Top " + sites.size() + " by total time (calls, total, p50, p99, max, allocated):"), false);
+        for (ScriptProfiler.Site site : sites) {
+            LatencyHistogram h = site.histogram();
+            String line = String.format("§7%s §f%s §7%d calls, %s total, %s / %s / %s, %s%s",
+                    site.kind(), site.location(), h.count(),
+                    millis(h.totalNanos()), millis(h.percentile(0.5)), millis(h.percentile(0.99)), millis(h.maxNanos()),
+                    megabytes(site.allocatedBytes()), site.errors() > 0 ? ", §c" + site.errors() + " errors" : "");
+            source.sendSuccess(() -> Component.literal(line), false);
+        }
+        return sites.size();
+    }
+
+    private static int resetProfile(CommandContext<CommandSourceStack> context){
+        ScriptProfiler.INSTANCE.reset();
+        context.getSource().sendSuccess(() -> Component.literal("[LuaScript] Profiler reset"), true);
+        return 1;
+    }
+
+    private static int startRecording(CommandContext<CommandSourceStack> context){
+        CommandSourceStack source = context.getSource();
+        Path file = recordingFile(context);
+        try {
+            if (!ScriptEventRecorder.INSTANCE.start(LuaEngineManager.INSTANCE.server().events(), file)) {
+                source.sendFailure(Component.literal("[LuaScript] Already recording, stop it first with /luascript record stop"));
+                return 0;
+            }
+        } catch (IOException e) {
+            source.sendFailure(Component.literal("[LuaScript] Cannot record to " + file.getFileName() + ": " + e.getMessage()));
+            return 0;
+        }
+        source.sendSuccess(() -> Component.literal("[LuaScript] Recording events to " + file.getFileName()), true);
+        return 1;
+    }
+
+    private static int stopRecording(CommandContext<CommandSourceStack> context){
+        long count = ScriptEventRecorder.INSTANCE.stop();
+        if (count < 0) {
+            context.getSource().sendFailure(Component.literal("[LuaScript] Not recording"));
+            return 0;
+        }
+        context.getSource().sendSuccess(() -> Component.literal("[LuaScript] Recorded " + count + " events"), true);
+        return (int) Math.min(count, Integer.MAX_VALUE);
+    }
+
+    private static int replay(CommandContext<CommandSourceStack> context, boolean paced){
+        CommandSourceStack source = context.getSource();
+        Path file = recordingFile(context);
+        ScriptEventRecording recording;
+        try {
+            recording = ScriptEventRecording.read(file);
+        } catch (IOException e) {
+            source.sendFailure(Component.literal("[LuaScript] Cannot read " + file.getFileName() + ": " + e.getMessage()));
+            return 0;
+        }
+        ScriptEventRegistry registry = LuaEngineManager.INSTANCE.server().events();
+        if (paced) {
+            ScriptEventRecorder.INSTANCE.replayPaced(registry, recording);
+            source.sendSuccess(() -> Component.literal("[LuaScript] Replaying " + recording.size() + " events over "
+                    + millis(recording.size() == 0 ? 0 : recording.nanos(recording.size() - 1))), true);
+        } else {
+            ScriptEventRecorder.INSTANCE.replayAll(registry, recording);
+            source.sendSuccess(() -> Component.literal("[LuaScript] Replaying " + recording.size()
+                    + " events at full speed, the server log reports the rate when done"), true);
+        }
+        return recording.size();
+    }
+
+    // Recordings belong to the world they were made in: <world>/luascript/recordings/<name>.events
+    private static Path recordingFile(CommandContext<CommandSourceStack> context){
+        return context.getSource().getServer().getWorldPath(LevelResource.ROOT)
+                .resolve("luascript").resolve("recordings").resolve(StringArgumentType.getString(context, "name") + ".events");
+    }
+
+    private static String millis(long nanos){
+        return String.format("%.3fms", nanos / 1_000_000.0);
+    }
+
+    private static String megabytes(long bytes){
+        return String.format("%.1fMB", bytes / (double) (1 << 20));
+    }
+}
@@ -0,0 +1,85 @@
+package com.mnight.luascript.core;
+
+import com.mnight.luascript.Config;
+import org.luaj.vm2.LuaError;
+
+/**
+ * Error handling of one callback that runs over and over, such as an event listener. A broken handler on a busy
+ * server would otherwise log an error for every event:
+ * <ul>
+ * <li>errors are logged at most once every 10 seconds, the next log line counts the ones left out</li>
+ * <li>only the first error caused by Java code gets a stack trace; Lua errors name the script line in their message</li>
+ * <li>after {@link Config#HANDLER_FAILURE_LIMIT} errors in a row the breaker opens and the callback is skipped.
+ * Reloading registers the callback again, with a new breaker</li>
+ * </ul>
+ */
+final class ScriptCircuitBreaker {
+    private static final long REPORT_INTERVAL_NANOS = 10_000_000_000L;
+
+    private final String description;
+    // Read on the first failure: client scripts register listeners before any server config is loaded
+    private int limit = -1;
+    private volatile boolean open;
+    // Written without the lock on success, the hot path only reads it
+    private volatile int consecutive;
+    private boolean reported;
+    private long lastReport;
+    private int unreported;
+    private boolean traced;
+
+    /**
+     * @param description what is failing, e.g. "event handler for block_break at server/a.lua:2"
+     */
+    ScriptCircuitBreaker(String description) {
+        this.description = description;
+    }
+
+    /**
+     * True once the callback failed too often and must not run anymore.
+     */
+    boolean isOpen(){
+        return open;
+    }
+
+    void succeeded(){
+        if (consecutive != 0) consecutive = 0;
+    }
+
+    /**
+     * @param aborted whether the call ran out of its {@link org.luaj.vm2.ExecutionBudget}
+     */
+    synchronized void failed(Exception e, boolean aborted){
+        int failures = consecutive + 1;
+        consecutive = failures;
+        int limit = limit();
+        if (limit > 0 && failures >= limit) {
+            open = true;
+            System.err.println("[LuaScript] Disabled " + description + " after " + failures + " errors in a row, last: "
+                    + e.getMessage() + ". It runs again after the next reload");
+            return;
+        }
+        long now = System.nanoTime();
+        if (reported && now - lastReport < REPORT_INTERVAL_NANOS) {
+            unreported++;
+            return;
+        }
+        String skipped = unreported > 0 ? " (" + unreported + " more errors since the last report)" : "";
+        System.err.println("[LuaScript] " + (aborted ? "Aborted " : "Error in ") + description + ": " + e.getMessage() + skipped);
+        if (!aborted && !traced && (!(e instanceof LuaError) || e.getCause() != null)) {
+            traced = true;
+            e.printStackTrace();
+        }
+        reported = true;
+        lastReport = now;
+        unreported = 0;
+    }
+
+    // Without a loaded server config, e.g. client scripts in the main menu, the default applies until one is loaded
+    private int limit(){
+        if (limit < 0) {
+            if (!Config.SPEC.isLoaded()) return Config.HANDLER_FAILURE_LIMIT.getDefault();
+            limit = Config.HANDLER_FAILURE_LIMIT.get();
+        }
+        return limit;
+    }
+}
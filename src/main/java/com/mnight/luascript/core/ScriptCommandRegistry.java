@@ -1,49 +1,254 @@
 package com.mnight.luascript.core;
 
 import com.mojang.brigadier.CommandDispatcher;
+import com.mojang.brigadier.arguments.*;
+import com.mojang.brigadier.builder.ArgumentBuilder;
+import com.mojang.brigadier.builder.LiteralArgumentBuilder;
+import com.mojang.brigadier.builder.RequiredArgumentBuilder;
 import com.mojang.brigadier.context.CommandContext;
+import com.mojang.brigadier.exceptions.CommandSyntaxException;
 import net.minecraft.commands.CommandSourceStack;
 import net.minecraft.commands.Commands;
+import net.minecraft.commands.arguments.EntityArgument;
+import net.minecraft.commands.arguments.coordinates.BlockPosArgument;
 import net.minecraft.network.chat.Component;
+import com.mnight.luascript.Config;
+import com.mnight.luascript.core.event.LuaViews;
+import com.mnight.luascript.core.profile.ScriptFlightEvents;
+import com.mnight.luascript.core.profile.ScriptProfiler;
+import org.luaj.vm2.ExecutionBudget;
+import org.luaj.vm2.LuaError;
+import org.luaj.vm2.LuaTable;
 import org.luaj.vm2.LuaValue;
+import org.luaj.vm2.Varargs;
 import org.luaj.vm2.lib.jse.CoerceJavaToLua;
 
-import java.util.HashMap;
-import java.util.Map;
+import java.util.*;
 
 public class ScriptCommandRegistry {
     public static final ScriptCommandRegistry INSTANCE = new ScriptCommandRegistry();
 
-    private final Map<String, LuaValue> pendingCommands = new HashMap<>();
+    /**
+     * Argument types a script can declare, parsed by Brigadier and handed to Lua as plain values.
+     */
+    private enum ArgType {
+        INT {
+            ArgumentType<?> argumentType() { return IntegerArgumentType.integer(); }
+            LuaValue read(CommandContext<CommandSourceStack> context, String name) { return LuaValue.valueOf(IntegerArgumentType.getInteger(context, name)); }
+        },
+        DOUBLE {
+            ArgumentType<?> argumentType() { return DoubleArgumentType.doubleArg(); }
+            LuaValue read(CommandContext<CommandSourceStack> context, String name) { return LuaValue.valueOf(DoubleArgumentType.getDouble(context, name)); }
+        },
+        BOOL {
+            ArgumentType<?> argumentType() { return BoolArgumentType.bool(); }
+            LuaValue read(CommandContext<CommandSourceStack> context, String name) { return LuaValue.valueOf(BoolArgumentType.getBool(context, name)); }
+        },
+        WORD {
+            ArgumentType<?> argumentType() { return StringArgumentType.word(); }
+            LuaValue read(CommandContext<CommandSourceStack> context, String name) { return LuaValue.valueOf(StringArgumentType.getString(context, name)); }
+        },
+        // Rest of the line, only valid as the last argument
+        TEXT {
+            ArgumentType<?> argumentType() { return StringArgumentType.greedyString(); }
+            LuaValue read(CommandContext<CommandSourceStack> context, String name) { return LuaValue.valueOf(StringArgumentType.getString(context, name)); }
+        },
+        PLAYER {
+            ArgumentType<?> argumentType() { return EntityArgument.player(); }
+            LuaValue read(CommandContext<CommandSourceStack> context, String name) throws CommandSyntaxException { return LuaViews.player(EntityArgument.getPlayer(context, name)); }
+        },
+        BLOCKPOS {
+            ArgumentType<?> argumentType() { return BlockPosArgument.blockPos(); }
+            LuaValue read(CommandContext<CommandSourceStack> context, String name) throws CommandSyntaxException { return LuaViews.pos(BlockPosArgument.getLoadedBlockPos(context, name)); }
+        };
+
+        abstract ArgumentType<?> argumentType();
+
+        abstract LuaValue read(CommandContext<CommandSourceStack> context, String name) throws CommandSyntaxException;
+    }
+
+    // One declared argument, "name:type" or "name:type?" for optional ones
+    private record Arg(String name, ArgType type, boolean optional) {}
+
+    // Script command; args is null for untyped commands, which get the raw CommandContext
+    private record LuaCommand(LuaValue callback, List<Arg> args, String owner) {
+        String signature() {
+            return args == null ? "" : args.toString();
+        }
+    }
+
+    private final Map<String, LuaCommand> pendingCommands = new HashMap<>();
+
+    // Names already added to the current dispatcher (a new one is created on every /reload), with their argument signature
+    private CommandDispatcher<CommandSourceStack> registeredDispatcher;
+    private final Map<String, String> registeredNames = new HashMap<>();
 
     public void register(String commandName, LuaValue callback){
-        pendingCommands.put(commandName, callback);
+        add(commandName, callback, null);
         System.out.println("[LuaScript] Registered command '/" +  commandName + "'");
     }
 
-    public void registerAll(CommandDispatcher<CommandSourceStack>  dispatcher){
-        for (Map.Entry<String, LuaValue> entry : pendingCommands.entrySet()) {
+    /**
+     * Registers a command with typed arguments, e.g. {@code {"target:player", "amount:int?"}}.
+     * Types: int, double, bool, word, text (rest of the line), player, blockpos.
+     * A trailing {@code ?} makes an argument optional; every argument after it must be optional too.
+     * The callback is called as {@code callback(source, arg1, arg2, ...)}; a string it returns is sent back as feedback.
+     */
+    public void register(String commandName, LuaTable schema, LuaValue callback){
+        List<Arg> args = parseSchema(commandName, schema);
+        add(commandName, callback, args);
+        System.out.println("[LuaScript] Registered command '/" +  commandName + "' " + args);
+    }
+
+    private void add(String commandName, LuaValue callback, List<Arg> args){
+        LuaValue function = callback.checkfunction();
+        String owner = LuaEngineManager.INSTANCE.currentScript();
+        ScriptMemoryAccount account = LuaEngineManager.INSTANCE.server().account(owner);
+        if (account != null) account.retain(function);
+        pendingCommands.put(commandName, new LuaCommand(function, args, owner));
+    }
+
+    /**
+     * Adds every known command that the dispatcher does not have yet, or whose arguments changed.
+     * The callback is looked up by name on each execution, so a hot-reloaded script
+     * takes effect without touching the command tree.
+     * @return the number of newly added commands
+     */
+    public int registerAll(CommandDispatcher<CommandSourceStack>  dispatcher){
+        if (dispatcher != registeredDispatcher) {
+            registeredDispatcher = dispatcher;
+            registeredNames.clear();
+        }
+        int added = 0;
+        for (Map.Entry<String, LuaCommand> entry : pendingCommands.entrySet()) {
             String name = entry.getKey();
-            LuaValue callback = entry.getValue();
+            LuaCommand command = entry.getValue();
+            String signature = command.signature();
+            if (signature.equals(registeredNames.put(name, signature))) continue;
 
-            dispatcher.register(Commands.literal(name)
-                    .executes(context -> executeLuaCommand(context, callback))
-            );
+            // Brigadier merges a re-registered literal into the existing node, so changed arguments add a branch
+            dispatcher.register(buildTree(name, command.args()));
+            added++;
         }
+        return added;
+    }
+
+    private LiteralArgumentBuilder<CommandSourceStack> buildTree(String name, List<Arg> args){
+        LiteralArgumentBuilder<CommandSourceStack> literal = Commands.literal(name);
+        if (args == null) return literal.executes(context -> executeLuaCommand(context, name));
+
+        // Built from the last argument back, each node executes if everything after it is optional
+        ArgumentBuilder<CommandSourceStack, ?> next = null;
+        for (int i = args.size() - 1; i >= 0; i--) {
+            Arg arg = args.get(i);
+            RequiredArgumentBuilder<CommandSourceStack, ?> node = Commands.argument(arg.name(), arg.type().argumentType());
+            if (next == null || args.get(i + 1).optional()) node.executes(context -> executeLuaCommand(context, name));
+            if (next != null) node.then(next);
+            next = node;
+        }
+        if (next != null) literal.then(next);
+        if (args.isEmpty() || args.get(0).optional()) literal.executes(context -> executeLuaCommand(context, name));
+        return literal;
     }
 
     public void clear(){
         pendingCommands.clear();
     }
 
-    private int executeLuaCommand(CommandContext<CommandSourceStack> context, LuaValue callback){
+    /**
+     * Removes only the commands registered by one script file. Used by hot reload.
+     */
+    public void clear(String owner){
+        pendingCommands.values().removeIf(command -> Objects.equals(owner, command.owner()));
+    }
+
+    private int executeLuaCommand(CommandContext<CommandSourceStack> context, String name){
+        LuaCommand command = pendingCommands.get(name);
+        if (command == null) {
+            context.getSource().sendFailure(Component.literal("§cLua command '/" + name + "' is no longer defined"));
+            return 0;
+        }
+        ScriptProfiler.Site site = ScriptProfiler.INSTANCE.site("command /" + name, command.callback(), command.owner());
+        // Same limits as an event handler, a command runs on the server thread too
+        LuaRuntime runtime = LuaEngineManager.INSTANCE.server();
+        ExecutionBudget budget = new ExecutionBudget(Config.HANDLER_INSTRUCTION_LIMIT.get(), Config.HANDLER_TIME_LIMIT_MS.get() * 1_000_000L,
+                Config.HANDLER_MEMORY_LIMIT_MB.get() * (1L << 20));
+        budget.setAccount(runtime.account(command.owner()));
+        ExecutionBudget previous = ExecutionBudget.install(runtime.globals(), budget);
+        long start = System.nanoTime();
+        ScriptFlightEvents.Call event = site.begin();
+        String outcome = "error";
         try {
-            callback.call(CoerceJavaToLua.coerce(context));
+            if (command.args() == null) {
+                command.callback().call(CoerceJavaToLua.coerce(context));
+                outcome = "ok";
+                return 1;
+            }
+            LuaValue result = command.callback().invoke(readArguments(context, command.args())).arg1();
+            if (result.isstring()) {
+                String feedback = result.tojstring();
+                context.getSource().sendSuccess(() -> Component.literal(feedback), false);
+            }
+            outcome = "ok";
             return 1;
+        } catch (CommandSyntaxException e) {
+            context.getSource().sendFailure(Component.literal("§c" + e.getMessage()));
+            return 0;
+        } catch (IllegalArgumentException e) {
+            // A required argument is missing from the parsed tree: the script changed its arguments since registration
+            context.getSource().sendFailure(Component.literal("§cLua command '/" + name + "' changed its arguments, use the new form"));
+            return 0;
         } catch (Exception e) {
             context.getSource().sendFailure(Component.literal("§cLua Error: " + e.getMessage()));
             e.printStackTrace();
             return 0;
+        } finally {
+            ExecutionBudget.install(runtime.globals(), previous);
+            site.record(start, event, outcome);
+            site.recordAllocation(budget.allocatedBytes());
+        }
+    }
+
+    private static Varargs readArguments(CommandContext<CommandSourceStack> context, List<Arg> args) throws CommandSyntaxException {
+        LuaValue[] values = new LuaValue[args.size() + 1];
+        values[0] = LuaViews.commandSource(context.getSource());
+        for (int i = 0; i < args.size(); i++) {
+            Arg arg = args.get(i);
+            try {
+                values[i + 1] = arg.type().read(context, arg.name());
+            } catch (IllegalArgumentException e) {
+                // Brigadier's way of saying the argument was not given
+                if (!arg.optional()) throw e;
+                values[i + 1] = LuaValue.NIL;
+            }
+        }
+        return LuaValue.varargsOf(values);
+    }
+
+    private static List<Arg> parseSchema(String commandName, LuaTable schema){
+        List<Arg> args = new ArrayList<>(schema.length());
+        for (int i = 1; i <= schema.length(); i++) {
+            String spec = schema.get(i).checkjstring();
+            int colon = spec.indexOf(':');
+            if (colon <= 0) throw new LuaError("/" + commandName + ": argument '" + spec + "' must look like name:type");
+            String typeName = spec.substring(colon + 1);
+            boolean optional = typeName.endsWith("?");
+            if (optional) typeName = typeName.substring(0, typeName.length() - 1);
+
+            ArgType type;
+            try {
+                type = ArgType.valueOf(typeName.toUpperCase(Locale.ROOT));
+            } catch (IllegalArgumentException e) {
+                throw new LuaError("/" + commandName + ": unknown argument type '" + typeName + "', expected int, double, bool, word, text, player or blockpos");
+            }
+            if (!optional && !args.isEmpty() && args.get(args.size() - 1).optional()) {
+                throw new LuaError("/" + commandName + ": required argument '" + spec + "' follows an optional one");
+            }
+            if (!args.isEmpty() && args.get(args.size() - 1).type() == ArgType.TEXT) {
+                throw new LuaError("/" + commandName + ": a text argument must be the last one");
+            }
+            args.add(new Arg(spec.substring(0, colon), type, optional));
         }
+        return args;
     }
 }
@@ -0,0 +1,135 @@
+package com.mnight.luascript.core;
+
+import com.mnight.luascript.core.profile.ScriptFlightEvents;
+import org.luaj.vm2.LoadState;
+import org.luaj.vm2.Prototype;
+import org.luaj.vm2.compiler.DumpState;
+import org.luaj.vm2.compiler.LuaC;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Stream;
+
+/**
+ * On-disk cache of compiled script {@link Prototype}s.
+ * Entries are keyed by a hash of the source bytes, the chunk name and {@link #COMPILER_VERSION},
+ * so editing a script or upgrading the compiler simply misses the cache.
+ */
+public class ScriptCompileCache {
+    // Bump the last part whenever the embedded compiler (org.luaj.vm2.compiler) changes its output
+    public static final String COMPILER_VERSION =
+            "luac-" + LoadState.LUAC_VERSION + "." + LoadState.LUAC_FORMAT + "." + DumpState.NUMBER_FORMAT_DEFAULT + "-1";
+
+    private static final String EXTENSION = ".luac";
+
+    private final Path cacheDir;
+    // Entries hit or written since the last prune()
+    private final Set<String> usedKeys = ConcurrentHashMap.newKeySet();
+
+    public ScriptCompileCache(Path cacheDir) {
+        this.cacheDir = cacheDir;
+    }
+
+    /**
+     * Returns the compiled prototype for a script file, compiling and caching it on a miss.
+     * Safe to call from several threads at once.
+     */
+    public Prototype load(Path source, String chunkname) throws IOException {
+        return load(Files.readAllBytes(source), chunkname);
+    }
+
+    public Prototype load(byte[] source, String chunkname) throws IOException {
+        String key = key(source, chunkname);
+        usedKeys.add(key);
+        Path entry = cacheDir.resolve(key + EXTENSION);
+
+        if (Files.isRegularFile(entry)) {
+            ScriptFlightEvents.Undump undump = new ScriptFlightEvents.Undump();
+            undump.begin();
+            try (InputStream in = new BufferedInputStream(Files.newInputStream(entry))) {
+                Prototype cached = LoadState.undump(in, chunkname);
+                if (cached != null) {
+                    undump.loaded = true;
+                    return cached;
+                }
+            } catch (Exception e) {
+                System.err.println("[LuaScript] Dropping corrupt cache entry " + entry.getFileName());
+            } finally {
+                undump.chunk = chunkname;
+                undump.commit();
+            }
+            Files.deleteIfExists(entry);
+        }
+
+        ScriptFlightEvents.Compile compile = new ScriptFlightEvents.Compile();
+        compile.begin();
+        Prototype prototype = LuaC.instance.compile(new ByteArrayInputStream(source), chunkname);
+        compile.end();
+        if (compile.shouldCommit()) {
+            compile.chunk = chunkname;
+            compile.sourceBytes = source.length;
+            compile.commit();
+        }
+        store(entry, prototype);
+        return prototype;
+    }
+
+    /**
+     * Deletes entries that were not used since the previous prune, i.e. old versions of edited scripts.
+     */
+    public void prune() {
+        if (!Files.isDirectory(cacheDir)) return;
+        try (Stream<Path> entries = Files.list(cacheDir)) {
+            entries.filter(p -> p.getFileName().toString().endsWith(EXTENSION))
+                    .filter(p -> !usedKeys.contains(stripExtension(p)))
+                    .forEach(p -> {
+                        try { Files.deleteIfExists(p); } catch (IOException ignored) {}
+                    });
+        } catch (IOException e) {
+            System.err.println("[LuaScript] Failed to prune compile cache: " + e.getMessage());
+        }
+        usedKeys.clear();
+    }
+
+    private void store(Path entry, Prototype prototype) {
+        try {
+            Files.createDirectories(cacheDir);
+            // Write to a temp file first so a crash never leaves a half-written entry behind
+            Path temp = Files.createTempFile(cacheDir, "compile", ".tmp");
+            try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(temp))) {
+                DumpState.dump(prototype, out, false);
+                out.close();
+                Files.move(temp, entry, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } finally {
+                Files.deleteIfExists(temp);
+            }
+        } catch (IOException e) {
+            System.err.println("[LuaScript] Failed to cache " + entry.getFileName() + ": " + e.getMessage());
+        }
+    }
+
+    private static String key(byte[] source, String chunkname) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            digest.update(COMPILER_VERSION.getBytes(StandardCharsets.UTF_8));
+            digest.update((byte) 0);
+            digest.update(chunkname.getBytes(StandardCharsets.UTF_8));
+            digest.update((byte) 0);
+            digest.update(source);
+            return HexFormat.of().formatHex(digest.digest());
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+    }
+
+    private static String stripExtension(Path path) {
+        String name = path.getFileName().toString();
+        return name.substring(0, name.length() - EXTENSION.length());
+    }
+}
@@ -0,0 +1,217 @@
+package com.mnight.luascript.core;
+
+import com.mnight.luascript.core.event.RecordedEvent;
+import com.mnight.luascript.core.event.ScriptEventFilters;
+import com.mnight.luascript.core.storage.LuaValueCodec;
+import org.luaj.vm2.LuaTable;
+import org.luaj.vm2.LuaValue;
+import org.luaj.vm2.Varargs;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Records the events fired into a runtime's listeners, and replays recordings into them, to reproduce
+ * real traffic offline: {@code /luascript record start <name>}, then {@code /luascript replay <name>},
+ * or {@code runBenchmark --replay <file>}.
+ * <p>
+ * Each event is stored with its time since the recording started, the view scripts got for it, kept to plain
+ * values ({@code view.raw} and functions are left out), and the ids {@link ScriptEventFilters} match on.
+ * Only events some script listens to reach {@link ScriptEventRegistry#fire}, so only those are recorded.
+ * <p>
+ * File layout, big-endian: the int {@code 0x4C534556} ("LSEV") and a version byte, then records. A name record
+ * ({@code 0}, short id, UTF name) precedes the first event of that name. An event record is
+ * {@code 1}, short id, long nanoseconds, block, item and dimension ids as {@link LuaValueCodec} values,
+ * permission byte, int length and the encoded view.
+ */
+public class ScriptEventRecorder {
+    public static final ScriptEventRecorder INSTANCE = new ScriptEventRecorder();
+
+    static final int MAGIC = 0x4C534556;
+    static final byte VERSION = 1;
+    static final byte NAME = 0, EVENT = 1;
+
+    // Views nest a few levels (event.player.pos); anything deeper is left out rather than followed into a cycle
+    private static final int MAX_DEPTH = 8;
+    // Time a full speed replay may spend firing per server tick, well inside the 50 ms of a tick
+    private static final long REPLAY_SLICE_NANOS = 20_000_000L;
+
+    private ScriptEventRegistry recorded;
+    private DataOutputStream out;
+    private Path file;
+    private long startNanos;
+    private long count;
+    private final Set<Integer> named = new HashSet<>();
+
+    // Running replay, advanced by tick() on the server thread
+    private ScriptEventRecording replay;
+    private ScriptEventRegistry replayTarget;
+    private boolean replayPaced;
+    private long replayStartNanos;
+    private long replayFiringNanos;
+    private int replayNext;
+
+    private ScriptEventRecorder() {}
+
+    /**
+     * Starts recording the events of a registry into a new file.
+     * @return false when a recording is already running
+     */
+    public synchronized boolean start(ScriptEventRegistry registry, Path file) throws IOException {
+        if (out != null) return false;
+        Files.createDirectories(file.getParent());
+        DataOutputStream stream = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(file), 1 << 16));
+        stream.writeInt(MAGIC);
+        stream.writeByte(VERSION);
+        this.out = stream;
+        this.file = file;
+        this.recorded = registry;
+        this.startNanos = System.nanoTime();
+        this.count = 0;
+        named.clear();
+        registry.recording = true;
+        System.out.println("[LuaScript] Recording events to " + file);
+        return true;
+    }
+
+    /**
+     * Stops recording and closes the file.
+     * @return the number of events recorded, or -1 when nothing was recording
+     */
+    public synchronized long stop(){
+        if (out == null) return -1;
+        recorded.recording = false;
+        try {
+            out.close();
+        } catch (IOException e) {
+            System.err.println("[LuaScript] Failed to close event recording " + file + ": " + e.getMessage());
+        }
+        System.out.println("[LuaScript] Recorded " + count + " events to " + file);
+        out = null;
+        recorded = null;
+        return count;
+    }
+
+    public synchronized boolean isRecording(){
+        return out != null;
+    }
+
+    // Called by ScriptEventRegistry.fire while recording, with the view it hands to the listeners
+    synchronized void record(int eventId, Object event, LuaValue view){
+        if (out == null) return;
+        long time = System.nanoTime() - startNanos;
+        try {
+            RecordedEvent snapshot = ScriptEventFilters.INSTANCE.record(event, LuaValueCodec.encode(plain(view, 0)));
+            if (named.add(eventId)) {
+                out.writeByte(NAME);
+                out.writeShort(eventId);
+                out.writeUTF(ScriptEventRegistry.nameOf(eventId));
+            }
+            out.writeByte(EVENT);
+            out.writeShort(eventId);
+            out.writeLong(time);
+            LuaValueCodec.encode(snapshot.block(), out);
+            LuaValueCodec.encode(snapshot.item(), out);
+            LuaValueCodec.encode(snapshot.dimension(), out);
+            out.writeByte(snapshot.permission());
+            out.writeInt(snapshot.viewBytes().length);
+            out.write(snapshot.viewBytes());
+            count++;
+        } catch (Exception e) {
+            System.err.println("[LuaScript] Stopped recording events, writing failed: " + e.getMessage());
+            stop();
+        }
+    }
+
+    /**
+     * Replays a recording as fast as the server allows: each tick fires events for up to
+     * {@link #REPLAY_SLICE_NANOS}, so a long recording does not stall the server thread.
+     * Replaces a replay that is still running.
+     */
+    public void replayAll(ScriptEventRegistry registry, ScriptEventRecording recording){
+        startReplay(registry, recording, false);
+    }
+
+    /**
+     * Replays a recording at the pace it was recorded, spread over the following server ticks.
+     * Replaces a replay that is still running.
+     */
+    public void replayPaced(ScriptEventRegistry registry, ScriptEventRecording recording){
+        startReplay(registry, recording, true);
+    }
+
+    private void startReplay(ScriptEventRegistry registry, ScriptEventRecording recording, boolean paced){
+        this.replay = recording;
+        this.replayTarget = registry;
+        this.replayPaced = paced;
+        this.replayStartNanos = System.nanoTime();
+        this.replayFiringNanos = 0;
+        this.replayNext = 0;
+    }
+
+    /**
+     * Fires the events of the running replay that are due. Called at the start of every server tick.
+     */
+    public void tick(){
+        ScriptEventRecording recording = replay;
+        if (recording == null) return;
+        long start = System.nanoTime();
+        if (replayPaced) {
+            long elapsed = start - replayStartNanos;
+            while (replayNext < recording.size() && recording.nanos(replayNext) <= elapsed) {
+                recording.fire(replayTarget, replayNext++);
+            }
+        } else {
+            while (replayNext < recording.size() && System.nanoTime() - start < REPLAY_SLICE_NANOS) {
+                recording.fire(replayTarget, replayNext++);
+            }
+        }
+        replayFiringNanos += System.nanoTime() - start;
+        if (replayNext == recording.size()) {
+            System.out.println(String.format("[LuaScript] Finished replaying %d events, %.3fms firing, %.0f events/s",
+                    recording.size(), replayFiringNanos / 1e6, recording.size() / Math.max(replayFiringNanos / 1e9, 1e-9)));
+            replay = null;
+            replayTarget = null;
+        }
+    }
+
+    /**
+     * Stops recording and any replay. Called when the server stops.
+     */
+    public void close(){
+        stop();
+        replay = null;
+        replayTarget = null;
+    }
+
+    // A copy holding only what LuaValueCodec can write
+    private static LuaValue plain(LuaValue value, int depth){
+        switch (value.type()) {
+            case LuaValue.TNIL:
+            case LuaValue.TBOOLEAN:
+            case LuaValue.TNUMBER:
+            case LuaValue.TSTRING:
+                return value;
+            case LuaValue.TTABLE: {
+                if (depth == MAX_DEPTH) return LuaValue.NIL;
+                LuaTable copy = new LuaTable();
+                LuaValue key = LuaValue.NIL;
+                while (true) {
+                    Varargs next = value.next(key);
+                    if ((key = next.arg1()).isnil()) break;
+                    LuaValue plainKey = key.istable() ? LuaValue.NIL : plain(key, depth + 1);
+                    LuaValue element = plain(next.arg(2), depth + 1);
+                    if (!plainKey.isnil() && !element.isnil()) copy.rawset(plainKey, element);
+                }
+                return copy;
+            }
+            default:
+                return LuaValue.NIL;
+        }
+    }
+}
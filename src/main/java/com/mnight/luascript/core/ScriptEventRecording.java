@@ -0,0 +1,103 @@
+package com.mnight.luascript.core;
+
+import com.mnight.luascript.core.event.RecordedEvent;
+import com.mnight.luascript.core.storage.LuaValueCodec;
+import org.luaj.vm2.LuaValue;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A file written by {@link ScriptEventRecorder}, read into memory for replay.
+ * Event names are mapped to the ids of the running game, so a recording stays valid across restarts.
+ */
+public final class ScriptEventRecording {
+    private final int[] eventIds;
+    private final long[] nanos;
+    private final RecordedEvent[] events;
+
+    private ScriptEventRecording(int[] eventIds, long[] nanos, RecordedEvent[] events) {
+        this.eventIds = eventIds;
+        this.nanos = nanos;
+        this.events = events;
+    }
+
+    /**
+     * Reads a recording. A file cut short, because the server stopped while recording, is read up to its last whole event.
+     */
+    public static ScriptEventRecording read(Path file) throws IOException {
+        Map<Integer, Integer> ids = new HashMap<>();
+        int count = 0;
+        int[] eventIds = new int[1024];
+        long[] nanos = new long[1024];
+        List<RecordedEvent> events = new ArrayList<>();
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file), 1 << 16))) {
+            if (in.readInt() != ScriptEventRecorder.MAGIC) throw new IOException(file.getFileName() + " is not an event recording");
+            int version = in.readByte();
+            if (version != ScriptEventRecorder.VERSION) throw new IOException("unsupported event recording version " + version);
+            try {
+                while (true) {
+                    byte tag = in.readByte();
+                    if (tag == ScriptEventRecorder.NAME) {
+                        int id = in.readShort();
+                        ids.put(id, ScriptEventRegistry.idOf(in.readUTF()));
+                        continue;
+                    }
+                    if (tag != ScriptEventRecorder.EVENT) throw new IOException("corrupt event recording, unknown record " + tag);
+                    Integer id = ids.get((int) in.readShort());
+                    if (id == null) throw new IOException("corrupt event recording, event before its name");
+                    long time = in.readLong();
+                    RecordedEvent event = readEvent(in);
+                    if (count == eventIds.length) {
+                        eventIds = Arrays.copyOf(eventIds, count * 2);
+                        nanos = Arrays.copyOf(nanos, count * 2);
+                    }
+                    eventIds[count] = id;
+                    nanos[count] = time;
+                    events.add(event);
+                    count++;
+                }
+            } catch (EOFException e) {
+                // End of the file, or an event cut off by a crash
+            }
+        }
+        return new ScriptEventRecording(Arrays.copyOf(eventIds, count), Arrays.copyOf(nanos, count), events.toArray(new RecordedEvent[0]));
+    }
+
+    private static RecordedEvent readEvent(DataInputStream in) throws IOException {
+        LuaValue block = LuaValueCodec.decode(in);
+        LuaValue item = LuaValueCodec.decode(in);
+        LuaValue dimension = LuaValueCodec.decode(in);
+        int permission = in.readByte();
+        byte[] view = new byte[in.readInt()];
+        in.readFully(view);
+        return new RecordedEvent(view, block, item, dimension, permission);
+    }
+
+    public int size(){
+        return events.length;
+    }
+
+    /**
+     * Nanoseconds from the start of the recording to an event.
+     */
+    public long nanos(int index){
+        return nanos[index];
+    }
+
+    /**
+     * Fires one recorded event into a registry, through the same path as a live event.
+     */
+    public void fire(ScriptEventRegistry registry, int index){
+        registry.fire(eventIds[index], events[index]);
+    }
+}
@@ -1,49 +1,298 @@
 package com.mnight.luascript.core;
 
+import com.mnight.luascript.Config;
+import com.mnight.luascript.core.event.LuaObjectView;
+import com.mnight.luascript.core.event.RecordedEvent;
+import com.mnight.luascript.core.event.ScriptEventAdapters;
+import com.mnight.luascript.core.event.ScriptEventCatalog;
+import com.mnight.luascript.core.event.ScriptEventFilters;
+import com.mnight.luascript.core.profile.ScriptFlightEvents;
+import com.mnight.luascript.core.profile.ScriptProfiler;
+import net.neoforged.bus.api.ICancellableEvent;
+import org.luaj.vm2.ExecutionBudget;
+import org.luaj.vm2.Globals;
+import org.luaj.vm2.LuaTable;
 import org.luaj.vm2.LuaValue;
-import org.luaj.vm2.lib.jse.CoerceJavaToLua;
 
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Predicate;
 
+/**
+ * Lua event listeners of one {@link LuaRuntime}.
+ */
 public class ScriptEventRegistry {
-    public static final ScriptEventRegistry INSTANCE = new ScriptEventRegistry();
 
-    // Map storing event names and their list of Lua callback functions
-    private final Map<String, List<LuaValue>> listeners = new HashMap<>();
+    // Callback plus the script file that registered it; filter is null when the listener takes every event,
+    // batch is null unless the listener receives the events of a tick at once, account is null without an owner
+    private record Listener(String owner, LuaValue callback, Predicate<Object> filter, ScriptProfiler.Site site, Batch batch,
+                            ScriptCircuitBreaker breaker, ScriptMemoryAccount account) {}
+
+    // Raw events buffered for a batched listener until the end of the tick
+    private static final class Batch {
+        final int eventId;
+        final ArrayList<Object> events = new ArrayList<>();
+
+        Batch(int eventId) {
+            this.eventId = eventId;
+        }
+    }
+
+    // Per-event limits set from Lua, overriding the config defaults
+    private record Budget(long instructions, long millis) {}
+
+    private static final Listener[] NO_LISTENERS = new Listener[0];
+
+    // Event name -> dense id, shared by both runtimes; ids are never reused or removed
+    private static final Map<String, Integer> EVENT_IDS = new ConcurrentHashMap<>();
+
+    private final LuaRuntime runtime;
+    // Indexed by event id. Writers copy and swap the whole array under the lock,
+    // so fire() can read a consistent snapshot from any thread without locking.
+    private volatile Listener[][] listeners = new Listener[0][];
+    private volatile Budget[] budgets = new Budget[0];
+    // Batched listeners with buffered events, only touched by the thread of this runtime's side
+    private final List<Listener> pendingBatches = new ArrayList<>();
+    // Set while ScriptEventRecorder captures the events of this runtime
+    volatile boolean recording;
+
+    /**
+     * Returns the id of an event name, assigning the next free one on first use.
+     * Callers that fire often should look the id up once and use {@link #fire(int, Object)}.
+     */
+    public static int idOf(String eventName){
+        Integer id = EVENT_IDS.get(eventName);
+        if (id != null) return id;
+        synchronized (EVENT_IDS) {
+            return EVENT_IDS.computeIfAbsent(eventName, k -> EVENT_IDS.size());
+        }
+    }
+
+    /**
+     * Returns the name an id was assigned to, or null for an unknown id.
+     */
+    public static String nameOf(int eventId){
+        for (Map.Entry<String, Integer> entry : EVENT_IDS.entrySet()) {
+            if (entry.getValue() == eventId) return entry.getKey();
+        }
+        return null;
+    }
+
+    ScriptEventRegistry(LuaRuntime runtime) {
+        this.runtime = runtime;
+    }
 
     /**
      * Registers a Lua function to listen for a specific event.
      */
     public void register(String eventName, LuaValue callback){
-        listeners.computeIfAbsent(eventName, k -> new ArrayList<>()).add(callback);
+        register(eventName, callback, LuaValue.NIL);
+    }
+
+    /**
+     * Registers a listener that is only called for events matching a filter table, see {@link ScriptEventFilters}.
+     */
+    public void register(String eventName, LuaValue callback, LuaValue filter){
+        add(eventName, callback, filter, false);
+    }
+
+    /**
+     * Registers a listener that receives every matching event of a tick at once, as an array, after
+     * the tick ended. Meant for events that come in bursts, such as block_break during an explosion.
+     * The events already happened by then, so the records have no {@code cancel}, and events another listener
+     * cancelled are left out. Records are built when the tick ends, so live values such as the player's
+     * position and level describe the end of the tick, not the moment of the event.
+     */
+    public void registerBatched(String eventName, LuaValue callback, LuaValue filter){
+        add(eventName, callback, filter, true);
+    }
+
+    private void add(String eventName, LuaValue callback, LuaValue filter, boolean batched){
+        String owner = runtime.currentScript();
+        if (!ScriptEventCatalog.INSTANCE.isDefined(eventName)) {
+            System.err.println("[LuaScript] " + owner + " listens to unknown event '" + eventName + "', it will never fire");
+        }
+        int id = idOf(eventName);
+        ScriptProfiler.Site site = ScriptProfiler.INSTANCE.site((batched ? "batch " : "event ") + eventName, callback, owner);
+        ScriptCircuitBreaker breaker = new ScriptCircuitBreaker((batched ? "batched " : "") + "event handler for " + eventName + " at " + site.location());
+        ScriptMemoryAccount account = runtime.account(owner);
+        if (account != null) account.retain(callback);
+        Listener listener = new Listener(owner, callback.checkfunction(), ScriptEventFilters.INSTANCE.compile(filter), site,
+                batched ? new Batch(id) : null, breaker, account);
+        synchronized (this) {
+            Listener[][] table = Arrays.copyOf(listeners, Math.max(listeners.length, id + 1));
+            Listener[] current = table[id] != null ? table[id] : NO_LISTENERS;
+            Listener[] updated = Arrays.copyOf(current, current.length + 1);
+            updated[current.length] = listener;
+            table[id] = updated;
+            publish(table);
+        }
     }
 
     /**
-     * Clears all listeners. Used during reload to prevent duplicates.
+     * Limits every call of a handler for this event. 0 means no limit.
      */
-    public void clear(){
-        listeners.clear();
+    public void setBudget(String eventName, long instructions, long millis){
+        int id = idOf(eventName);
+        synchronized (this) {
+            Budget[] table = Arrays.copyOf(budgets, Math.max(budgets.length, id + 1));
+            table[id] = new Budget(instructions, millis);
+            budgets = table;
+        }
+    }
+
+    /**
+     * Clears all listeners and budgets. Used during reload to prevent duplicates.
+     */
+    public synchronized void clear(){
+        publish(new Listener[0][]);
+        budgets = new Budget[0];
+        pendingBatches.clear();
+    }
+
+    /**
+     * Removes only the listeners registered by one script file. Used by hot reload.
+     */
+    public synchronized void clear(String owner){
+        Listener[][] table = listeners.clone();
+        for (int id = 0; id < table.length; id++) {
+            if (table[id] == null) continue;
+            table[id] = Arrays.stream(table[id])
+                    .filter(listener -> !Objects.equals(owner, listener.owner()))
+                    .toArray(Listener[]::new);
+        }
+        publish(table);
+        pendingBatches.removeIf(listener -> Objects.equals(owner, listener.owner()));
+    }
+
+    // Swaps in a new listener table and subscribes the game events it needs, called with the lock held
+    private void publish(Listener[][] table){
+        listeners = table;
+        ScriptEventCatalog.INSTANCE.sync(this, id -> id < table.length && table[id] != null && table[id].length > 0);
     }
 
     /**
      * Fires an event from Java to all registered Lua callbacks.
      */
     public void fire(String eventName, Object eventData){
-        List<LuaValue> callbacks = listeners.get(eventName);
-        if (callbacks != null && !callbacks.isEmpty()){
-            LuaValue luaData = CoerceJavaToLua.coerce(eventData);
-            for (LuaValue callback : callbacks){
-                try {
-                    callback.call(luaData);
-                } catch (Exception e){
-                    System.err.println("[LuaScript] Error in event handler for " + eventName);
-                    e.printStackTrace();
-                }
+        fire(idOf(eventName), eventData);
+    }
+
+    /**
+     * Fires an event by id. The listeners are read from one snapshot, so handlers registered
+     * or cleared while firing only take effect for the next event.
+     * Listener filters are tested on the raw event first; the event is only converted through
+     * {@link ScriptEventAdapters} once some listener accepts it, then shared by every callback.
+     * Each callback runs under its own {@link ExecutionBudget}, so a runaway handler cannot stall the tick,
+     * charging the memory account of its script, and a handler that keeps failing is skipped once its {@link ScriptCircuitBreaker} opens.
+     * Batched listeners only buffer the raw event until {@link #flushBatches()}.
+     */
+    public void fire(int eventId, Object eventData){
+        Listener[][] table = listeners;
+        if (eventId >= table.length) return;
+        Listener[] callbacks = table[eventId];
+        if (callbacks == null || callbacks.length == 0) return;
+        LuaValue luaData = null;
+        // Captured before any listener can change or cancel it, the view is then shared with the listeners
+        if (recording && !(eventData instanceof RecordedEvent)) luaData = record(eventId, eventData);
+
+        ExecutionBudget budget = null;
+        for (Listener listener : callbacks){
+            if (listener.breaker().isOpen()) continue;
+            if (listener.filter() != null && !listener.filter().test(eventData)) continue;
+            if (listener.batch() != null) {
+                // Kept raw, converted only when the batch is delivered
+                if (listener.batch().events.isEmpty()) pendingBatches.add(listener);
+                listener.batch().events.add(eventData);
+                continue;
             }
+            if (luaData == null) luaData = ScriptEventAdapters.INSTANCE.adapt(eventData);
+            if (budget == null) budget = newBudget(eventId);
+            call(listener, luaData, budget);
+        }
+    }
+
+    // Runs outside the budget of a handler that fired the event, the snapshot is not that handler's allocation
+    private LuaValue record(int eventId, Object eventData){
+        Globals globals = runtime.globals();
+        ExecutionBudget previous = ExecutionBudget.install(globals, null);
+        try {
+            LuaValue luaData = ScriptEventAdapters.INSTANCE.adapt(eventData);
+            ScriptEventRecorder.INSTANCE.record(eventId, eventData, luaData);
+            return luaData;
+        } finally {
+            ExecutionBudget.install(globals, previous);
+        }
+    }
+
+    /**
+     * Delivers the events buffered for batched listeners, one call per listener with an array of all its events.
+     * Called at the end of every tick of this runtime's side.
+     */
+    public void flushBatches(){
+        if (pendingBatches.isEmpty()) return;
+        Listener[] batched = pendingBatches.toArray(NO_LISTENERS);
+        pendingBatches.clear();
+        for (Listener listener : batched) {
+            List<Object> events = listener.batch().events;
+            if (listener.breaker().isOpen()) {
+                // Buffered before the breaker opened, a disabled handler gets nothing more
+                events.clear();
+                continue;
+            }
+            LuaTable records = new LuaTable(events.size(), 0);
+            int count = 0;
+            for (Object event : events) {
+                // Cancelled after it was buffered, by a later script listener or another mod, so it never happened
+                if (event instanceof ICancellableEvent cancellable && cancellable.isCanceled()) continue;
+                records.rawset(++count, record(event));
+            }
+            events.clear();
+            if (count > 0) call(listener, records, newBudget(listener.batch().eventId));
+        }
+    }
 
+    // The view of a batched event, without the cancel of live events: the event already happened
+    private static LuaValue record(Object event){
+        LuaValue view = ScriptEventAdapters.INSTANCE.adapt(event);
+        if (view instanceof LuaObjectView objectView) objectView.withoutCancel();
+        else if (event instanceof RecordedEvent) view.setmetatable(LuaValue.NIL);
+        return view;
+    }
+
+    private void call(Listener listener, LuaValue argument, ExecutionBudget budget){
+        Globals globals = runtime.globals();
+        budget.setAccount(listener.account());
+        budget.start();
+        // Restored afterwards, events may be fired from inside another handler
+        ExecutionBudget previous = ExecutionBudget.install(globals, budget);
+        long start = System.nanoTime();
+        ScriptFlightEvents.Call event = listener.site().begin();
+        String outcome = "ok";
+        try {
+            listener.callback().call(argument);
+            listener.breaker().succeeded();
+        } catch (Exception e){
+            outcome = "error";
+            listener.breaker().failed(e, budget.isExceeded());
+        } finally {
+            ExecutionBudget.install(globals, previous);
+            listener.site().record(start, event, outcome);
+            listener.site().recordAllocation(budget.allocatedBytes());
         }
     }
+
+    // Also used by the client runtime, which has no server config in the main menu
+    private ExecutionBudget newBudget(int eventId){
+        Budget[] table = budgets;
+        Budget budget = eventId < table.length ? table[eventId] : null;
+        long maxBytes = Config.valueOrDefault(Config.HANDLER_MEMORY_LIMIT_MB) * (1L << 20);
+        if (budget != null) return new ExecutionBudget(budget.instructions(), budget.millis() * 1_000_000L, maxBytes);
+        return new ExecutionBudget(Config.valueOrDefault(Config.HANDLER_INSTRUCTION_LIMIT),
+                Config.valueOrDefault(Config.HANDLER_TIME_LIMIT_MS) * 1_000_000L, maxBytes);
+    }
 }
@@ -0,0 +1,130 @@
+package com.mnight.luascript.core;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.*;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import static java.nio.file.StandardWatchEventKinds.*;
+
+/**
+ * Watches script folders on a background thread and collects changed {@code .lua} files.
+ * Nothing is reloaded here; the server thread polls {@link #drainSettled()} and does the work.
+ * <p>
+ * Watched folders only report their own files. Watched trees, such as {@code lib} where {@code require("util.text")}
+ * loads {@code lib/util/text.lua}, report the files of every subfolder, including subfolders created later.
+ */
+public class ScriptFileWatcher {
+    // Editors usually write a file in several steps, wait until it has been quiet for a moment
+    private static final long DEBOUNCE_NANOS = TimeUnit.MILLISECONDS.toNanos(250);
+
+    private final Path rootPath;
+    private final List<Path> watchedDirs;
+    private final List<Path> watchedTrees;
+    // Changed file -> time of its last change event
+    private final Map<Path, Long> pending = new ConcurrentHashMap<>();
+
+    private WatchService watchService;
+    private Thread thread;
+
+    public ScriptFileWatcher(Path rootPath, List<Path> watchedDirs, List<Path> watchedTrees) {
+        this.rootPath = rootPath;
+        this.watchedDirs = List.copyOf(watchedDirs);
+        this.watchedTrees = List.copyOf(watchedTrees);
+    }
+
+    public synchronized void start() {
+        if (thread != null) return;
+        try {
+            watchService = rootPath.getFileSystem().newWatchService();
+            for (Path dir : watchedDirs) {
+                if (Files.isDirectory(dir)) dir.register(watchService, ENTRY_CREATE, ENTRY_MODIFY, ENTRY_DELETE);
+            }
+            for (Path tree : watchedTrees) {
+                if (Files.isDirectory(tree)) registerTree(tree);
+            }
+        } catch (IOException e) {
+            System.err.println("[LuaScript] Could not start file watcher: " + e.getMessage());
+            return;
+        }
+        thread = new Thread(this::run, "LuaScript-Watcher");
+        thread.setDaemon(true);
+        thread.start();
+        System.out.println("[LuaScript] Watching " + rootPath + " for script changes");
+    }
+
+    public synchronized void stop() {
+        if (thread == null) return;
+        try {
+            watchService.close();
+        } catch (IOException ignored) {}
+        thread.interrupt();
+        thread = null;
+        pending.clear();
+    }
+
+    /**
+     * Returns the files whose last change is older than the debounce window, removing them from the queue.
+     * A change to {@link #rootPath} itself means events were lost and everything should be reloaded.
+     */
+    public List<Path> drainSettled() {
+        if (pending.isEmpty()) return List.of();
+        long now = System.nanoTime();
+        List<Path> settled = new ArrayList<>();
+        for (Map.Entry<Path, Long> entry : pending.entrySet()) {
+            if (now - entry.getValue() >= DEBOUNCE_NANOS && pending.remove(entry.getKey(), entry.getValue())) {
+                settled.add(entry.getKey());
+            }
+        }
+        settled.sort(null);
+        return settled;
+    }
+
+    private void run() {
+        try {
+            while (true) {
+                WatchKey key = watchService.take();
+                Path dir = (Path) key.watchable();
+                for (WatchEvent<?> event : key.pollEvents()) {
+                    if (event.kind() == OVERFLOW) {
+                        pending.put(rootPath, System.nanoTime());
+                        continue;
+                    }
+                    Path file = dir.resolve((Path) event.context());
+                    if (file.getFileName().toString().endsWith(".lua")) {
+                        pending.put(file, System.nanoTime());
+                    } else if (event.kind() == ENTRY_CREATE && Files.isDirectory(file) && inTree(file)) {
+                        // Files written before the new folder is registered send no events, report the folder itself
+                        registerTree(file);
+                        pending.put(file, System.nanoTime());
+                    }
+                }
+                key.reset();
+            }
+        } catch (InterruptedException | ClosedWatchServiceException ignored) {
+            // stop() was called
+        }
+    }
+
+    private boolean inTree(Path file) {
+        for (Path tree : watchedTrees) {
+            if (file.startsWith(tree)) return true;
+        }
+        return false;
+    }
+
+    private void registerTree(Path tree) {
+        try (Stream<Path> dirs = Files.walk(tree)) {
+            for (Path dir : (Iterable<Path>) dirs.filter(Files::isDirectory)::iterator) {
+                dir.register(watchService, ENTRY_CREATE, ENTRY_MODIFY, ENTRY_DELETE);
+            }
+        } catch (IOException | UncheckedIOException e) {
+            System.err.println("[LuaScript] Could not watch " + tree + ": " + e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,181 @@
+package com.mnight.luascript.core;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.*;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Orders script files so that each runs after the files it depends on.
+ * Dependencies are declared in the comment lines at the top of a script:
+ * <pre>
+ * -- @depends economy, shops.lua
+ * </pre>
+ * Names refer to other files of the same folder, with or without {@code .lua}. Files that do not depend
+ * on each other keep running in name order, so the order is the same on every machine.
+ */
+final class ScriptLoadOrder {
+    private static final Pattern DEPENDS = Pattern.compile("^--+\\s*@depends\\s+(.+)$");
+    // Only the header is read, a script declaring dependencies further down is a mistake anyway
+    private static final int MAX_HEADER_LINES = 64;
+
+    private ScriptLoadOrder() {}
+
+    /**
+     * Returns the files in run order. Missing dependencies and cycles are reported and otherwise ignored:
+     * a cycle is broken at its first file by name, which runs before the files it depends on. Files that only
+     * depend on a cycle are not part of it and still run after the files they depend on.
+     */
+    static List<File> sort(File[] files){
+        return sort(files, true);
+    }
+
+    // Hot reload sorts again on every change, the problems were reported when the folder was loaded
+    private static List<File> sort(File[] files, boolean report){
+        Map<File, Integer> waitingOn = new HashMap<>();
+        Map<File, Set<File>> dependents = dependents(files, waitingOn, report);
+
+        // Kahn's algorithm, always taking the first ready file by name
+        PriorityQueue<File> ready = new PriorityQueue<>(Comparator.comparing(File::getName));
+        for (File file : files) {
+            if (waitingOn.get(file) == 0) ready.add(file);
+        }
+        List<File> order = new ArrayList<>(files.length);
+        List<File> cycle = null;
+        while (true) {
+            while (!ready.isEmpty()) {
+                File file = ready.poll();
+                order.add(file);
+                for (File dependent : dependents.getOrDefault(file, Set.of())) {
+                    if (waitingOn.merge(dependent, -1, Integer::sum) == 0) ready.add(dependent);
+                }
+            }
+            if (order.size() == files.length) return order;
+
+            if (cycle == null) {
+                // Everything left waits on a cycle, but only the files that can reach themselves are part of one
+                Set<File> left = new HashSet<>();
+                for (File file : files) {
+                    if (waitingOn.get(file) > 0) left.add(file);
+                }
+                cycle = new ArrayList<>();
+                List<File> downstream = new ArrayList<>();
+                for (File file : left) (onCycle(file, dependents, left) ? cycle : downstream).add(file);
+                cycle.sort(Comparator.comparing(File::getName));
+                downstream.sort(Comparator.comparing(File::getName));
+                if (report) {
+                    System.err.println("[LuaScript] Circular @depends between " + cycle.stream().map(File::getName).toList()
+                            + ", running them in name order");
+                }
+                if (report && !downstream.isEmpty()) {
+                    System.err.println("[LuaScript] " + downstream.stream().map(File::getName).toList()
+                            + " depend on that cycle and run after it");
+                }
+            }
+            // Break the cycle at its first file still waiting
+            for (File file : cycle) {
+                if (waitingOn.get(file) > 0) {
+                    waitingOn.put(file, 0);
+                    ready.add(file);
+                    break;
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the files that have to run again after some files of the folder changed: the changed files that
+     * still exist and every file depending on one of them, directly or through other files, in run order.
+     * A file depending on a changed one may read what it set up while loading, e.g. in the shared table.
+     * @param changed names of the changed files, including deleted ones
+     */
+    static List<File> affected(File[] files, Set<String> changed){
+        Map<File, Set<File>> dependents = dependents(files, new HashMap<>(), false);
+        Map<String, File> byName = new HashMap<>();
+        for (File file : files) byName.put(file.getName(), file);
+
+        Set<File> affected = new HashSet<>();
+        Deque<File> pending = new ArrayDeque<>();
+        for (String name : changed) {
+            File file = byName.get(name);
+            if (file != null && affected.add(file)) pending.add(file);
+        }
+        // Files naming a deleted file are affected too, it is no longer in the graph
+        for (File file : files) {
+            for (String name : dependencies(file)) {
+                String fileName = name.endsWith(".lua") ? name : name + ".lua";
+                if (changed.contains(fileName) && !byName.containsKey(fileName) && affected.add(file)) pending.add(file);
+            }
+        }
+        while (!pending.isEmpty()) {
+            for (File dependent : dependents.getOrDefault(pending.poll(), Set.of())) {
+                if (affected.add(dependent)) pending.add(dependent);
+            }
+        }
+        if (affected.isEmpty()) return List.of();
+        List<File> order = new ArrayList<>(sort(files, false));
+        order.retainAll(affected);
+        return order;
+    }
+
+    // File -> the files depending on it; fills in how many dependencies each file waits on
+    private static Map<File, Set<File>> dependents(File[] files, Map<File, Integer> waitingOn, boolean report){
+        Map<String, File> byName = new HashMap<>();
+        for (File file : files) byName.put(file.getName(), file);
+
+        Map<File, Set<File>> dependents = new HashMap<>();
+        for (File file : files) {
+            int count = 0;
+            for (String name : dependencies(file)) {
+                File dependency = byName.get(name.endsWith(".lua") ? name : name + ".lua");
+                if (dependency == null) {
+                    if (report) System.err.println("[LuaScript] " + file.getName() + " depends on missing script " + name);
+                    continue;
+                }
+                if (dependency == file || !dependents.computeIfAbsent(dependency, f -> new HashSet<>()).add(file)) continue;
+                count++;
+            }
+            waitingOn.put(file, count);
+        }
+        return dependents;
+    }
+
+    // Whether a file can reach itself through files of a set, i.e. is part of a cycle
+    private static boolean onCycle(File file, Map<File, Set<File>> dependents, Set<File> within){
+        Set<File> seen = new HashSet<>();
+        Deque<File> pending = new ArrayDeque<>(dependents.getOrDefault(file, Set.of()));
+        while (!pending.isEmpty()) {
+            File next = pending.poll();
+            if (next == file) return true;
+            if (within.contains(next) && seen.add(next)) pending.addAll(dependents.getOrDefault(next, Set.of()));
+        }
+        return false;
+    }
+
+    /**
+     * Names listed by the {@code @depends} lines in the leading comments of a script.
+     */
+    static List<String> dependencies(File file){
+        List<String> names = new ArrayList<>();
+        try (BufferedReader reader = Files.newBufferedReader(file.toPath(), StandardCharsets.UTF_8)) {
+            String line;
+            for (int i = 0; i < MAX_HEADER_LINES && (line = reader.readLine()) != null; i++) {
+                line = line.trim();
+                if (line.isEmpty() || line.startsWith("#!")) continue;
+                if (!line.startsWith("--")) break;
+                Matcher matcher = DEPENDS.matcher(line);
+                if (!matcher.matches()) continue;
+                for (String name : matcher.group(1).split("[,\\s]+")) {
+                    if (!name.isEmpty()) names.add(name);
+                }
+            }
+        } catch (IOException e) {
+            // Unreadable files fail again when they are compiled, with a better message
+        }
+        return names;
+    }
+}
@@ -0,0 +1,58 @@
+package com.mnight.luascript.core;
+
+import org.luaj.vm2.ExecutionBudget;
+import org.luaj.vm2.LuaValue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.WeakHashMap;
+
+/**
+ * Memory one script file keeps across calls, capped by {@link com.mnight.luascript.Config#SCRIPT_MEMORY_LIMIT_MB}.
+ * Every budget running code of the file charges it, see {@link ExecutionBudget.Account}. What the file keeps is
+ * counted from its environment and from the callbacks it registered, which reach the locals of the chunk
+ * through their upvalues. Tables every file sees, such as {@code shared}, are not counted.
+ * <p>
+ * A new account is started every time the file runs, see {@link LuaRuntime#startAccount(String, LuaValue)},
+ * and only used from the thread of its runtime.
+ */
+final class ScriptMemoryAccount extends ExecutionBudget.Account {
+    private final LuaRuntime runtime;
+    private LuaValue environment;
+    // Registries drop callbacks on their own, e.g. when a task finishes, the account does not keep them alive
+    private final Set<LuaValue> callbacks = Collections.newSetFromMap(new WeakHashMap<>());
+
+    ScriptMemoryAccount(LuaRuntime runtime, long maxBytes) {
+        super(maxBytes);
+        this.runtime = runtime;
+    }
+
+    void setEnvironment(LuaValue environment){
+        this.environment = environment;
+    }
+
+    /**
+     * Counts what a registered callback reaches as kept by the script, for as long as the callback is referenced.
+     */
+    void retain(LuaValue callback){
+        callbacks.add(callback);
+    }
+
+    /**
+     * Returns a budget with the given per-call limits that also charges this account.
+     */
+    ExecutionBudget newBudget(long maxInstructions, long maxNanos, long maxBytes){
+        ExecutionBudget budget = new ExecutionBudget(maxInstructions, maxNanos, maxBytes);
+        budget.setAccount(this);
+        return budget;
+    }
+
+    @Override
+    protected long measure(){
+        List<LuaValue> roots = new ArrayList<>(callbacks);
+        if (environment != null) roots.add(environment);
+        return ExecutionBudget.reachableBytes(roots, runtime.commonTables());
+    }
+}
@@ -0,0 +1,125 @@
+package com.mnight.luascript.core;
+
+import org.luaj.vm2.Globals;
+import org.luaj.vm2.LuaError;
+import org.luaj.vm2.LuaTable;
+import org.luaj.vm2.LuaValue;
+import org.luaj.vm2.Prototype;
+import org.luaj.vm2.Varargs;
+import org.luaj.vm2.lib.TwoArgFunction;
+import org.luaj.vm2.lib.VarArgFunction;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Pattern;
+
+/**
+ * Resolves {@code require} against the {@code lua_script/lib} folder. Modules are only compiled and run
+ * the first time a script requires them, and {@code require("util.text")} loads {@code lib/util/text.lua}
+ * or {@code lib/util/text/init.lua}.
+ * <p>
+ * Compiled prototypes stay in memory across reloads and are only compiled again when the file's
+ * modification time or size changed. A full reload forgets which modules were loaded, so they run again on the next require.
+ * Each module runs in its own environment, like every other script file.
+ */
+public class ScriptModuleLoader {
+    public static final ScriptModuleLoader INSTANCE = new ScriptModuleLoader();
+
+    private static final Pattern MODULE_NAME = Pattern.compile("[A-Za-z0-9_-]+(\\.[A-Za-z0-9_-]+)*");
+
+    private record Compiled(FileTime modified, long size, Prototype prototype) {}
+
+    // Shared by both runtimes, prototypes are immutable
+    private final Map<Path, Compiled> prototypes = new ConcurrentHashMap<>();
+    private Path libPath;
+
+    private ScriptModuleLoader() {}
+
+    public void init(Path libPath){
+        this.libPath = libPath;
+    }
+
+    /**
+     * Makes {@code require} of a runtime search the lib folder, in place of the default search through {@code package.path}.
+     */
+    public void install(LuaRuntime runtime){
+        LuaValue package_ = runtime.globals().get("package");
+        package_.set("path", libPath.toAbsolutePath() + "/?.lua;" + libPath.toAbsolutePath() + "/?/init.lua");
+        package_.get("searchers").set(2, new Searcher(runtime));
+    }
+
+    /**
+     * Drops the modules a runtime has loaded from {@code package.loaded}. Called on every full reload.
+     */
+    public void forget(LuaRuntime runtime){
+        LuaTable loaded = runtime.globals().get("package").get("loaded").checktable();
+        for (String name : runtime.modules) loaded.set(name, LuaValue.NIL);
+        runtime.modules.clear();
+    }
+
+    private Path resolve(String name){
+        if (!MODULE_NAME.matcher(name).matches()) return null;
+        Path base = libPath.resolve(name.replace('.', '/'));
+        Path file = base.resolveSibling(base.getFileName() + ".lua");
+        if (Files.isRegularFile(file)) return file;
+        file = base.resolve("init.lua");
+        return Files.isRegularFile(file) ? file : null;
+    }
+
+    private Prototype prototype(LuaRuntime runtime, Path file) throws IOException {
+        FileTime modified = Files.getLastModifiedTime(file);
+        long size = Files.size(file);
+        Compiled compiled = prototypes.get(file);
+        if (compiled != null && compiled.modified().equals(modified) && compiled.size() == size) return compiled.prototype();
+
+        Prototype prototype = runtime.cache().load(file, "@" + file.toAbsolutePath());
+        prototypes.put(file, new Compiled(modified, size, prototype));
+        return prototype;
+    }
+
+    private final class Searcher extends VarArgFunction {
+        private final LuaRuntime runtime;
+
+        Searcher(LuaRuntime runtime) {
+            this.runtime = runtime;
+        }
+
+        public Varargs invoke(Varargs args) {
+            String name = args.checkjstring(1);
+            Path file = resolve(name);
+            if (file == null) return valueOf("\n\tno module '" + name + "' in lua_script/lib");
+            // Tracked before it runs, so a module that failed is retried after the next reload
+            runtime.modules.add(name);
+            return varargsOf(new Loader(runtime, file), valueOf(file.toString()));
+        }
+    }
+
+    private final class Loader extends TwoArgFunction {
+        private final LuaRuntime runtime;
+        private final Path file;
+
+        Loader(LuaRuntime runtime, Path file) {
+            this.runtime = runtime;
+            this.file = file;
+        }
+
+        public LuaValue call(LuaValue name, LuaValue path) {
+            Prototype prototype;
+            try {
+                prototype = prototype(runtime, file);
+            } catch (IOException e) {
+                throw new LuaError("cannot read module '" + name.tojstring() + "': " + e.getMessage());
+            }
+            Globals globals = runtime.globals();
+            try {
+                return globals.loader.load(prototype, "@" + file.toAbsolutePath(), runtime.newEnvironment(), globals).call(name, path);
+            } catch (IOException e) {
+                throw new LuaError(e);
+            }
+        }
+    }
+}
@@ -1,5 +1,6 @@
 package com.mnight.luascript.core;
 
+import com.mnight.luascript.core.profile.ScriptProfiler;
 import net.minecraft.core.NonNullList;
 import net.minecraft.core.registries.BuiltInRegistries;
 import net.minecraft.resources.ResourceLocation;
@@ -10,13 +11,14 @@ import net.minecraft.world.item.crafting.*;
 import org.luaj.vm2.LuaTable;
 import org.luaj.vm2.LuaValue;
 
-import java.lang.reflect.Field;
 import java.util.*;
 
 public class ScriptRecipeRegistry {
     public static final ScriptRecipeRegistry INSTANCE = new ScriptRecipeRegistry();
 
     private final List<Runnable> pendingTasks =  new ArrayList<>();
+    // Script file -> recipes it injected into the current manager
+    private final Map<String, Set<ResourceLocation>> ownedRecipes = new HashMap<>();
 
     // ==========================================
     // 1. Custom Exception: แจ้งเตือนเมื่อ Lua ผิด
@@ -36,16 +38,21 @@ public class ScriptRecipeRegistry {
     // 3. Public API (Lua เรียกใช้)
     // ==========================================
     public void addShaped(String name, LuaTable rawData){
+        String owner = LuaEngineManager.INSTANCE.currentScript();
+        ScriptProfiler.Site site = ScriptProfiler.INSTANCE.site("recipe " + name, String.valueOf(owner));
         pendingTasks.add(() -> {
+            long start = System.nanoTime();
             try {
                 ShapedRecipeData data = parseShapedData(rawData);
 
-                registerShapedRecipe(name, data);
+                registerShapedRecipe(name, data, owner);
             } catch (LuaRecipeException e) {
                 System.err.println("LuaMod Error [Recipe: " + name + "]: " + e.getMessage());
             } catch (Exception e){
                 System.err.println("LuaMod System Error [Recipe: "  + name + "] ");
                 e.printStackTrace();
+            } finally {
+                site.record(start);
             }
         });
     }
@@ -108,7 +115,7 @@ public class ScriptRecipeRegistry {
     // 5. Registration Logic (สร้าง Recipe จริง)
     // ==========================================
 
-    private void registerShapedRecipe(String name, ShapedRecipeData data){
+    private void registerShapedRecipe(String name, ShapedRecipeData data, String owner){
         ResourceLocation id = ResourceLocation.fromNamespaceAndPath( "luascript",name);
 
         ShapedRecipe recipe = new ShapedRecipe(
@@ -118,67 +125,60 @@ public class ScriptRecipeRegistry {
                 data.output()
         );
 
-        injectRecipeIntoManager(id, recipe);
-        System.out.println("[LuaScript] Registered shaped recipe " + id);
+        batch.put(id, new RecipeHolder<>(id, recipe));
+        ownedRecipes.computeIfAbsent(owner, k -> new HashSet<>()).add(id);
     }
 
     // ==========================================
-    // 6. Injection Logic (Reflection โหดๆ รวมไว้ที่นี่)
+    // 6. Injection Logic: one rebuild of the manager per apply()
     // ==========================================
-    private RecipeManager currentManager;
+    // Recipes built by the current apply(), in registration order
+    private final Map<ResourceLocation, RecipeHolder<?>> batch = new LinkedHashMap<>();
+    // Recipes of cleared scripts, still present in the live manager until the next apply()
+    private final Set<ResourceLocation> removedRecipes = new HashSet<>();
 
     public void apply(RecipeManager manager){
-        this.currentManager = manager;
         pendingTasks.forEach(Runnable::run);
         pendingTasks.clear();
-        this.currentManager = null;
-    }
+        if (batch.isEmpty() && removedRecipes.isEmpty()) return;
 
-    private void injectRecipeIntoManager(ResourceLocation id, Recipe<?> recipe){
-        if (currentManager == null) return;
+        long start = System.nanoTime();
         try {
-           Field byTypeField = getField(RecipeManager.class, "byType","f_44007_");
-           byTypeField.setAccessible(true);
-
-           Map<RecipeType<?>, Map<ResourceLocation, RecipeHolder<?>>> originalByType =
-                   (Map<RecipeType<?>, Map<ResourceLocation, RecipeHolder<?>>>) byTypeField.get(currentManager);
-
-           Map<RecipeType<?>, Map<ResourceLocation, RecipeHolder<?>>> mutableByType = new HashMap<>(originalByType);
-
-           RecipeHolder<?> holder = new RecipeHolder<>(id, (Recipe) recipe);
-           Map<ResourceLocation, RecipeHolder<?>> typeMap = mutableByType.getOrDefault(recipe.getType(), new HashMap<>());
-           Map<ResourceLocation, RecipeHolder<?>> mutableTypeMap = new HashMap<>(typeMap);
-
-           mutableTypeMap.put(id, holder);
-           mutableByType.put(recipe.getType(), mutableTypeMap);
-
-           byTypeField.set(currentManager, mutableByType);
-
-           Field byNameField = getField(RecipeManager.class, "byName", "f_44006_");
-           byNameField.setAccessible(true);
-
-           Map<ResourceLocation, RecipeHolder<?>> originalByName =
-                   (Map<ResourceLocation, RecipeHolder<?>>) byNameField.get(currentManager);
-
-           Map<ResourceLocation, RecipeHolder<?>> mutableByName = new HashMap<>(originalByName);
-            mutableByName.put(id, holder);
-
-            byNameField.set(currentManager, mutableByName);
+            // Keep every recipe that is neither removed nor redefined, then append the batch
+            Collection<RecipeHolder<?>> existing = manager.getRecipes();
+            List<RecipeHolder<?>> recipes = new ArrayList<>(existing.size() + batch.size());
+            for (RecipeHolder<?> holder : existing) {
+                if (!removedRecipes.contains(holder.id()) && !batch.containsKey(holder.id())) recipes.add(holder);
+            }
+            recipes.addAll(batch.values());
+            manager.replaceRecipes(recipes);
+            System.out.println("[LuaScript] Injected " + batch.size() + " recipes in " + (System.nanoTime() - start) / 1_000_000 + " ms");
         } catch (Exception e){
-            System.err.println("[LuaScript] Injection Failed for " + id);
+            System.err.println("[LuaScript] Recipe injection failed");
             e.printStackTrace();
+        } finally {
+            batch.clear();
+            removedRecipes.clear();
         }
     }
 
-    //Helper
-    private Field getField(Class<?> clazz, String... names) throws NoSuchFieldException{
-        for (String name : names){
-            try {
-                return clazz.getDeclaredField(name);
-            } catch (NoSuchFieldException ignored) {}
-        }
-        throw new NoSuchFieldException("Could not find field: " + Arrays.toString(names));
+    /**
+     * Forgets all pending recipes. Recipes already injected are removed from the manager on the next {@link #apply}.
+     */
+    public void clear(){
+        pendingTasks.clear();
+        for (Set<ResourceLocation> ids : ownedRecipes.values()) removedRecipes.addAll(ids);
+        ownedRecipes.clear();
+    }
+
+    /**
+     * Marks the recipes of one script file for removal on the next {@link #apply}. Used by hot reload.
+     */
+    public void clear(String owner){
+        Set<ResourceLocation> ids = ownedRecipes.remove(owner);
+        if (ids != null) removedRecipes.addAll(ids);
     }
+
     private Item getItem(String id){
         return BuiltInRegistries.ITEM.get(ResourceLocation.parse(id));
     }
@@ -0,0 +1,187 @@
+package com.mnight.luascript.core;
+
+import com.mnight.luascript.Config;
+import com.mnight.luascript.core.profile.ScriptFlightEvents;
+import com.mnight.luascript.core.profile.ScriptProfiler;
+import org.luaj.vm2.*;
+import org.luaj.vm2.lib.OneArgFunction;
+import org.luaj.vm2.lib.VarArgFunction;
+import org.luaj.vm2.lib.ZeroArgFunction;
+
+import java.util.ArrayDeque;
+import java.util.Comparator;
+import java.util.Objects;
+import java.util.PriorityQueue;
+
+/**
+ * Runs long script jobs as coroutines spread over server ticks.
+ * <p>
+ * Lua API ({@code scheduler} global):
+ * <ul>
+ * <li>{@code scheduler.spawn(fn, ...)} starts a task on the next tick and returns its coroutine</li>
+ * <li>{@code scheduler.sleep(ticks)} suspends the calling task for a number of ticks</li>
+ * <li>{@code scheduler.yield()} suspends the calling task until the next tick</li>
+ * </ul>
+ * Every tick, ready tasks are resumed one after another until the configured time slice is used up;
+ * the rest simply wait for the following tick.
+ */
+public class ScriptScheduler {
+    public static final ScriptScheduler INSTANCE = new ScriptScheduler();
+
+    // First value yielded by scheduler.sleep, followed by the tick count
+    private static final LuaValue SLEEP = new LuaUserdata(new Object());
+
+    private static final class Task {
+        final LuaThread thread;
+        final String owner;
+        final ScriptProfiler.Site site;
+        final ExecutionBudget budget;
+        Varargs args;
+        long wakeTick;
+
+        Task(LuaThread thread, String owner, ScriptProfiler.Site site, ExecutionBudget budget, Varargs args) {
+            this.thread = thread;
+            this.owner = owner;
+            this.site = site;
+            this.budget = budget;
+            this.args = args;
+        }
+    }
+
+    private final ArrayDeque<Task> ready = new ArrayDeque<>();
+    private final PriorityQueue<Task> sleeping = new PriorityQueue<>(Comparator.comparingLong((Task task) -> task.wakeTick));
+    private long currentTick;
+    private Globals globals;
+
+    private ScriptScheduler() {}
+
+    /**
+     * Creates the {@code scheduler} table for a Globals.
+     */
+    public LuaTable createLibrary(Globals globals){
+        this.globals = globals;
+        LuaTable scheduler = new LuaTable();
+        scheduler.set("spawn", new SpawnFunction());
+        scheduler.set("sleep", new SleepFunction());
+        scheduler.set("yield", new YieldFunction());
+        return scheduler;
+    }
+
+    public LuaThread spawn(LuaValue function, Varargs args){
+        LuaThread thread = new LuaThread(globals, function.checkfunction());
+        String owner = ownerOf(function);
+        ExecutionBudget budget = new ExecutionBudget(Config.HANDLER_INSTRUCTION_LIMIT.get(), Config.HANDLER_TIME_LIMIT_MS.get() * 1_000_000L,
+                Config.HANDLER_MEMORY_LIMIT_MB.get() * (1L << 20));
+        // Locals of a suspended task are not counted, but what its function reaches is, until the task ends
+        ScriptMemoryAccount account = LuaEngineManager.INSTANCE.server().account(owner);
+        if (account != null) {
+            account.retain(function);
+            budget.setAccount(account);
+        }
+        ready.add(new Task(thread, owner, ScriptProfiler.INSTANCE.site("task", function, owner), budget, args));
+        return thread;
+    }
+
+    /**
+     * Resumes due tasks until {@code sliceNanos} has elapsed. Called once per server tick.
+     */
+    public void tick(long sliceNanos){
+        currentTick++;
+        while (!sleeping.isEmpty() && sleeping.peek().wakeTick <= currentTick) {
+            ready.add(sleeping.poll());
+        }
+        if (ready.isEmpty()) return;
+
+        long start = System.nanoTime();
+        // Each task runs at most once per tick; tasks that yield now go after this batch
+        for (int n = ready.size(); n > 0 && System.nanoTime() - start < sliceNanos; n--) {
+            resume(ready.poll());
+        }
+    }
+
+    private void resume(Task task){
+        task.budget.start();
+        ExecutionBudget previous = ExecutionBudget.install(globals, task.budget);
+        long start = System.nanoTime();
+        ScriptFlightEvents.Call event = task.site.begin();
+        Varargs result = null;
+        try {
+            result = task.thread.resume(task.args);
+        } finally {
+            ExecutionBudget.install(globals, previous);
+            task.site.record(start, event, outcome(task, result));
+            task.site.recordAllocation(task.budget.allocatedBytes());
+        }
+        task.args = LuaValue.NONE;
+
+        if (!result.arg1().toboolean()) {
+            System.err.println("[LuaScript] Scheduled task from " + task.owner + " failed: " + result.arg(2).tojstring());
+            return;
+        }
+        if (task.thread.state.status == LuaThread.STATUS_DEAD) return;
+
+        if (result.arg(2) == SLEEP) {
+            task.wakeTick = currentTick + Math.max(1, result.arg(3).toint());
+            sleeping.add(task);
+        } else {
+            ready.add(task);
+        }
+    }
+
+    private static String outcome(Task task, Varargs result){
+        if (result == null || !result.arg1().toboolean()) return "error";
+        if (task.thread.state.status == LuaThread.STATUS_DEAD) return "done";
+        return result.arg(2) == SLEEP ? "sleep" : "yield";
+    }
+
+    /**
+     * Drops every task. Used during reload; abandoned coroutines are collected like any other.
+     */
+    public void clear(){
+        ready.clear();
+        sleeping.clear();
+    }
+
+    /**
+     * Drops the tasks whose function was defined in one script file. Used by hot reload.
+     */
+    public void clear(String owner){
+        ready.removeIf(task -> Objects.equals(owner, task.owner));
+        sleeping.removeIf(task -> Objects.equals(owner, task.owner));
+    }
+
+    private static String ownerOf(LuaValue function){
+        if (function instanceof LuaClosure closure) {
+            return LuaEngineManager.INSTANCE.scriptName(closure.p.shortsource());
+        }
+        return LuaEngineManager.INSTANCE.currentScript();
+    }
+
+    private void checkInTask(String name){
+        if (globals.running.isMainThread()) {
+            throw new LuaError("scheduler." + name + " can only be called from a task started with scheduler.spawn");
+        }
+    }
+
+    private final class SpawnFunction extends VarArgFunction {
+        public Varargs invoke(Varargs args) {
+            return ScriptScheduler.this.spawn(args.checkfunction(1), args.subargs(2));
+        }
+    }
+
+    private final class SleepFunction extends OneArgFunction {
+        public LuaValue call(LuaValue ticks) {
+            checkInTask("sleep");
+            globals.yield(varargsOf(SLEEP, valueOf(ticks.checkint())));
+            return NONE;
+        }
+    }
+
+    private final class YieldFunction extends ZeroArgFunction {
+        public LuaValue call() {
+            checkInTask("yield");
+            globals.yield(NONE);
+            return NONE;
+        }
+    }
+}
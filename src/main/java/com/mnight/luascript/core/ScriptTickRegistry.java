@@ -0,0 +1,222 @@
+package com.mnight.luascript.core;
+
+import com.mnight.luascript.Config;
+import com.mnight.luascript.core.event.LuaViews;
+import com.mnight.luascript.core.profile.ScriptFlightEvents;
+import com.mnight.luascript.core.profile.ScriptProfiler;
+import net.minecraft.world.level.Level;
+import net.neoforged.bus.api.EventPriority;
+import net.neoforged.neoforge.common.NeoForge;
+import net.neoforged.neoforge.event.tick.LevelTickEvent;
+import org.luaj.vm2.ExecutionBudget;
+import org.luaj.vm2.Globals;
+import org.luaj.vm2.LuaClosure;
+import org.luaj.vm2.LuaError;
+import org.luaj.vm2.LuaInteger;
+import org.luaj.vm2.LuaTable;
+import org.luaj.vm2.LuaValue;
+import org.luaj.vm2.lib.ThreeArgFunction;
+import org.luaj.vm2.lib.TwoArgFunction;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+import java.util.function.Consumer;
+
+/**
+ * Periodic callbacks on the server tick and on every level tick, kept apart from {@link ScriptEventRegistry}
+ * because they run 20 times a second: nothing is converted or allocated per call. Each callback owns
+ * its budget and profiler objects, the dimension argument is a cached string, and the tick number is
+ * created once per tick and shared by every callback that is due.
+ * <p>
+ * Lua API ({@code ticks} global, server only):
+ * <ul>
+ * <li>{@code ticks.every(n, function(tick) end)} runs every n server ticks</li>
+ * <li>{@code ticks.everyLevel(n, function(dimension, gameTime) end, dimension)} runs every n ticks of each level,
+ * or only of the given dimension</li>
+ * </ul>
+ * The first call comes at most n ticks after registering. When no script registered a level callback,
+ * the level tick listener is removed from the event bus. A callback that keeps failing is disabled like an
+ * event handler, see {@link ScriptCircuitBreaker}.
+ */
+public class ScriptTickRegistry {
+    // Declared before INSTANCE, the constructor's field initializers use it
+    private static final Ticker[] NO_TICKERS = new Ticker[0];
+
+    public static final ScriptTickRegistry INSTANCE = new ScriptTickRegistry();
+
+    private static final class Ticker {
+        final LuaValue callback;
+        final String owner;
+        final int interval;
+        // Remainder of the tick number on which the callback is due
+        final long phase;
+        // Only call for this dimension, null for every level
+        final LuaValue dimension;
+        final ScriptProfiler.Site site;
+        final ExecutionBudget budget;
+        final ScriptCircuitBreaker breaker;
+        // Reused for every call, a flight recorder event is only read when it is committed
+        final ScriptFlightEvents.Call event = new ScriptFlightEvents.Call();
+
+        Ticker(LuaValue callback, String owner, int interval, long phase, LuaValue dimension, ScriptProfiler.Site site, ExecutionBudget budget,
+               ScriptCircuitBreaker breaker) {
+            this.callback = callback;
+            this.owner = owner;
+            this.interval = interval;
+            this.phase = phase;
+            this.dimension = dimension;
+            this.site = site;
+            this.budget = budget;
+            this.breaker = breaker;
+        }
+
+        boolean isDue(long tick){
+            return tick % interval == phase && !breaker.isOpen();
+        }
+    }
+
+    // Copied on change, the tick loops iterate plain arrays
+    private Ticker[] serverTickers = NO_TICKERS;
+    private Ticker[] levelTickers = NO_TICKERS;
+    private final Consumer<LevelTickEvent.Post> levelListener = this::onLevelTick;
+    private boolean levelSubscribed;
+    private long currentTick;
+    private Globals globals;
+
+    private ScriptTickRegistry() {}
+
+    /**
+     * Creates the {@code ticks} table for a Globals.
+     */
+    public LuaTable createLibrary(Globals globals){
+        this.globals = globals;
+        LuaTable ticks = new LuaTable();
+        ticks.set("every", new TwoArgFunction() {
+            public LuaValue call(LuaValue interval, LuaValue callback) {
+                serverTickers = append(serverTickers, newTicker("tick", interval.checkint(), callback.checkfunction(), null, currentTick));
+                return NONE;
+            }
+        });
+        ticks.set("everyLevel", new ThreeArgFunction() {
+            public LuaValue call(LuaValue interval, LuaValue callback, LuaValue dimension) {
+                LuaValue only = dimension.isnil() ? null : dimensionId(dimension.checkjstring());
+                levelTickers = append(levelTickers, newTicker("level tick", interval.checkint(), callback.checkfunction(), only, currentTick));
+                syncLevelListener();
+                return NONE;
+            }
+        });
+        return ticks;
+    }
+
+    /**
+     * Runs the server tick callbacks that are due. Called at the end of every server tick.
+     */
+    public void tick(long tick){
+        currentTick = tick;
+        Ticker[] tickers = serverTickers;
+        if (tickers.length == 0) return;
+        LuaValue argument = null;
+        for (Ticker ticker : tickers) {
+            if (!ticker.isDue(tick)) continue;
+            if (argument == null) argument = LuaInteger.valueOf(tick);
+            call(ticker, argument, LuaValue.NIL);
+        }
+    }
+
+    private void onLevelTick(LevelTickEvent.Post event){
+        Level level = event.getLevel();
+        if (level.isClientSide()) return;
+        long time = level.getGameTime();
+        LuaValue dimension = null;
+        LuaValue argument = null;
+        for (Ticker ticker : levelTickers) {
+            if (!ticker.isDue(time)) continue;
+            if (dimension == null) dimension = LuaViews.levelId(level);
+            if (ticker.dimension != null && !ticker.dimension.raweq(dimension)) continue;
+            if (argument == null) argument = LuaInteger.valueOf(time);
+            call(ticker, dimension, argument);
+        }
+    }
+
+    private void call(Ticker ticker, LuaValue first, LuaValue second){
+        ExecutionBudget budget = ticker.budget;
+        budget.start();
+        ExecutionBudget previous = ExecutionBudget.install(globals, budget);
+        long start = System.nanoTime();
+        ticker.event.begin();
+        String outcome = "ok";
+        try {
+            ticker.callback.call(first, second);
+            ticker.breaker.succeeded();
+        } catch (Exception e) {
+            outcome = "error";
+            ticker.breaker.failed(e, budget.isExceeded());
+        } finally {
+            ExecutionBudget.install(globals, previous);
+            ticker.site.record(start, ticker.event, outcome);
+            ticker.site.recordAllocation(budget.allocatedBytes());
+        }
+    }
+
+    /**
+     * Drops every callback. Used during reload.
+     */
+    public void clear(){
+        serverTickers = NO_TICKERS;
+        levelTickers = NO_TICKERS;
+        syncLevelListener();
+    }
+
+    /**
+     * Drops the callbacks registered with functions from one script file. Used by hot reload.
+     */
+    public void clear(String owner){
+        serverTickers = without(serverTickers, owner);
+        levelTickers = without(levelTickers, owner);
+        syncLevelListener();
+    }
+
+    private Ticker newTicker(String kind, int interval, LuaValue callback, LuaValue dimension, long now){
+        if (interval < 1) throw new LuaError("tick interval must be at least 1, got " + interval);
+        String owner = callback instanceof LuaClosure closure
+                ? LuaEngineManager.INSTANCE.scriptName(closure.p.shortsource()) : LuaEngineManager.INSTANCE.currentScript();
+        ExecutionBudget budget = new ExecutionBudget(Config.HANDLER_INSTRUCTION_LIMIT.get(), Config.HANDLER_TIME_LIMIT_MS.get() * 1_000_000L,
+                Config.HANDLER_MEMORY_LIMIT_MB.get() * (1L << 20));
+        ScriptMemoryAccount account = LuaEngineManager.INSTANCE.server().account(owner);
+        if (account != null) {
+            account.retain(callback);
+            budget.setAccount(account);
+        }
+        ScriptProfiler.Site site = ScriptProfiler.INSTANCE.site(kind, callback, owner);
+        return new Ticker(callback, owner, interval, now % interval, dimension, site, budget,
+                new ScriptCircuitBreaker(kind + " callback at " + site.location()));
+    }
+
+    private void syncLevelListener(){
+        boolean wanted = levelTickers.length > 0;
+        if (wanted == levelSubscribed) return;
+        if (wanted) NeoForge.EVENT_BUS.addListener(EventPriority.NORMAL, false, LevelTickEvent.Post.class, levelListener);
+        else NeoForge.EVENT_BUS.unregister(levelListener);
+        levelSubscribed = wanted;
+    }
+
+    private static LuaValue dimensionId(String id){
+        return LuaValue.valueOf(id.indexOf(':') < 0 ? "minecraft:" + id : id);
+    }
+
+    private static Ticker[] append(Ticker[] tickers, Ticker ticker){
+        Ticker[] updated = Arrays.copyOf(tickers, tickers.length + 1);
+        updated[tickers.length] = ticker;
+        return updated;
+    }
+
+    private static Ticker[] without(Ticker[] tickers, String owner){
+        List<Ticker> kept = new ArrayList<>(tickers.length);
+        for (Ticker ticker : tickers) {
+            if (!Objects.equals(owner, ticker.owner)) kept.add(ticker);
+        }
+        return kept.toArray(NO_TICKERS);
+    }
+}
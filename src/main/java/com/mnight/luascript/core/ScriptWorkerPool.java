@@ -0,0 +1,310 @@
+package com.mnight.luascript.core;
+
+import com.mnight.luascript.Config;
+import com.mnight.luascript.core.profile.ScriptFlightEvents;
+import com.mnight.luascript.core.profile.ScriptProfiler;
+import org.luaj.vm2.*;
+import org.luaj.vm2.compiler.LuaC;
+import org.luaj.vm2.lib.*;
+import org.luaj.vm2.lib.jse.JseBaseLib;
+import org.luaj.vm2.lib.jse.JseMathLib;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs pure Lua functions on worker threads, each with its own isolated {@link Globals}.
+ * <p>
+ * Lua API ({@code workers} global):
+ * <ul>
+ * <li>{@code workers.submit(fn, ...)} runs {@code fn(...)} on a worker and returns a job</li>
+ * <li>{@code job:isDone()}, {@code job:result()} returns {@code ok, ...} once done</li>
+ * <li>{@code job:onDone(function(ok, ...) end)} runs on the server thread when the job finishes</li>
+ * <li>{@code job:await()} inside a {@code scheduler.spawn} task waits for the job and returns {@code ok, ...}</li>
+ * </ul>
+ * A worker cannot see the server's globals or any game object. Arguments, results and captured
+ * local variables are copied, so only nil, booleans, numbers, strings and tables of those can cross over.
+ * Read-only library tables are copied like any other table. Tables that inherit entries through {@code __index},
+ * such as a script's {@code _G}, are refused: only their own entries would arrive.
+ * Jobs finish on the worker, but are only seen as done after {@link #deliverCompleted()} ran on the server thread.
+ */
+public class ScriptWorkerPool {
+    public static final ScriptWorkerPool INSTANCE = new ScriptWorkerPool();
+
+    private static final LuaString ENV = LuaValue.valueOf("_ENV");
+
+    private static final class Job {
+        final Prototype prototype;
+        // Copied upvalues, null where the function refers to _ENV
+        final UpValue[] upValues;
+        final Varargs args;
+        final String owner;
+        final ScriptProfiler.Site site;
+        final List<LuaValue> callbacks = new ArrayList<>(1);
+        // Written by the worker, read on the server thread after it went through the completed queue
+        Varargs result;
+        boolean done;
+        boolean cancelled;
+
+        Job(Prototype prototype, UpValue[] upValues, Varargs args, String owner, ScriptProfiler.Site site) {
+            this.prototype = prototype;
+            this.upValues = upValues;
+            this.args = args;
+            this.owner = owner;
+            this.site = site;
+        }
+    }
+
+    // Each worker thread keeps its own Globals for its whole life
+    private final ThreadLocal<Globals> workerGlobals = ThreadLocal.withInitial(ScriptWorkerPool::newWorkerGlobals);
+    private final ConcurrentLinkedQueue<Job> completed = new ConcurrentLinkedQueue<>();
+    // Jobs submitted and not yet delivered, server thread only
+    private final Set<Job> inFlight = new HashSet<>();
+
+    // Methods shared by every job handle
+    private final LuaTable jobMetatable = LuaValue.tableOf(new LuaValue[] {LuaValue.INDEX, jobMethods()});
+
+    private ExecutorService executor;
+    private Globals globals;
+
+    private ScriptWorkerPool() {}
+
+    /**
+     * Creates the {@code workers} table for a Globals.
+     */
+    public LuaTable createLibrary(Globals globals){
+        this.globals = globals;
+        LuaTable workers = new LuaTable();
+        workers.set("submit", new VarArgFunction() {
+            public Varargs invoke(Varargs args) {
+                return submit(args.checkclosure(1), args.subargs(2));
+            }
+        });
+        return workers;
+    }
+
+    public synchronized void start(){
+        if (executor != null) return;
+        int threads = Config.WORKER_THREADS.get();
+        if (threads <= 0) threads = Math.max(1, Runtime.getRuntime().availableProcessors() / 2);
+        AtomicInteger index = new AtomicInteger();
+        executor = Executors.newFixedThreadPool(threads, task -> {
+            Thread thread = new Thread(task, "LuaScript-Worker-" + index.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        });
+        System.out.println("[LuaScript] Started " + threads + " script workers");
+    }
+
+    public synchronized void stop(){
+        if (executor == null) return;
+        executor.shutdownNow();
+        executor = null;
+        clear();
+    }
+
+    public LuaValue submit(LuaClosure function, Varargs args){
+        if (executor == null) throw new LuaError("workers are only available while a server is running");
+
+        // Copy now, the server thread may change the originals while the job runs
+        Varargs copiedArgs = copy(args, "argument");
+        UpValue[] upValues = captureUpValues(function);
+
+        String owner = LuaEngineManager.INSTANCE.scriptName(function.p.shortsource());
+        Job job = new Job(function.p, upValues, copiedArgs, owner, ScriptProfiler.INSTANCE.site("worker", function, owner));
+        inFlight.add(job);
+        executor.execute(() -> run(job));
+        return new LuaUserdata(job, jobMetatable);
+    }
+
+    /**
+     * Marks finished jobs as done and runs their callbacks. Called once per server tick.
+     */
+    public void deliverCompleted(){
+        Job job;
+        while ((job = completed.poll()) != null) {
+            if (!inFlight.remove(job) || job.cancelled) continue;
+            job.done = true;
+            for (LuaValue callback : job.callbacks) runCallback(job, callback);
+            job.callbacks.clear();
+        }
+    }
+
+    /**
+     * Drops every job. Jobs already running finish in the background and are ignored.
+     */
+    public void clear(){
+        for (Job job : inFlight) job.cancelled = true;
+        inFlight.clear();
+        completed.clear();
+    }
+
+    /**
+     * Drops the jobs submitted with a function from one script file. Used by hot reload.
+     */
+    public void clear(String owner){
+        inFlight.removeIf(job -> {
+            if (!Objects.equals(owner, job.owner)) return false;
+            job.cancelled = true;
+            return true;
+        });
+    }
+
+    private void run(Job job){
+        Globals worker = workerGlobals.get();
+        ExecutionBudget budget = new ExecutionBudget(0, Config.WORKER_TIME_LIMIT_MS.get() * 1_000_000L,
+                Config.HANDLER_MEMORY_LIMIT_MB.get() * (1L << 20));
+        ExecutionBudget.install(worker, budget);
+        long start = System.nanoTime();
+        ScriptFlightEvents.Call event = job.site.begin();
+        try {
+            // Prototypes are never modified once compiled, so the worker can share the server's copy
+            LuaClosure function = new LuaClosure(job.prototype, worker);
+            LuaValue[] env = {worker};
+            for (int i = 0; i < job.upValues.length; i++) {
+                function.upValues[i] = job.upValues[i] != null ? job.upValues[i] : new UpValue(env, 0);
+            }
+            job.result = LuaValue.varargsOf(LuaValue.TRUE, copy(function.invoke(job.args), "result"));
+        } catch (LuaError e) {
+            job.result = LuaValue.varargsOf(LuaValue.FALSE, ExecutionBudget.uncharged(e.getMessage()));
+        } catch (Exception | StackOverflowError e) {
+            job.result = LuaValue.varargsOf(LuaValue.FALSE, ExecutionBudget.uncharged(String.valueOf(e)));
+        } finally {
+            ExecutionBudget.install(worker, null);
+            job.site.record(start, event, job.result != null && job.result.arg1().toboolean() ? "ok" : "error");
+            job.site.recordAllocation(budget.allocatedBytes());
+        }
+        completed.add(job);
+    }
+
+    private void runCallback(Job job, LuaValue callback){
+        ExecutionBudget budget = new ExecutionBudget(Config.HANDLER_INSTRUCTION_LIMIT.get(),
+                Config.HANDLER_TIME_LIMIT_MS.get() * 1_000_000L, Config.HANDLER_MEMORY_LIMIT_MB.get() * (1L << 20));
+        // Runs on the server thread, what it keeps belongs to the script that submitted the job
+        budget.setAccount(LuaEngineManager.INSTANCE.server().account(job.owner));
+        ExecutionBudget previous = ExecutionBudget.install(globals, budget);
+        try {
+            callback.invoke(job.result);
+        } catch (Exception e) {
+            System.err.println("[LuaScript] Error in worker callback from " + job.owner + ": " + e.getMessage());
+        } finally {
+            ExecutionBudget.install(globals, previous);
+        }
+    }
+
+    /**
+     * Snapshots the upvalues of a closure. _ENV is left empty and bound to the worker's globals later.
+     */
+    private static UpValue[] captureUpValues(LuaClosure function){
+        UpValue[] upValues = new UpValue[function.p.upvalues.length];
+        for (int i = 0; i < upValues.length; i++) {
+            if (ENV.equals(function.p.upvalues[i].name)) continue;
+            LuaValue value = copy(function.upValues[i].getValue(), new IdentityHashMap<>(), "upvalue '" + function.p.upvalues[i].name + "'");
+            upValues[i] = new UpValue(new LuaValue[] {value}, 0);
+        }
+        return upValues;
+    }
+
+    private static Varargs copy(Varargs values, String what){
+        LuaValue[] copies = new LuaValue[values.narg()];
+        IdentityHashMap<LuaValue, LuaValue> seen = new IdentityHashMap<>();
+        for (int i = 0; i < copies.length; i++) copies[i] = copy(values.arg(i + 1), seen, what);
+        return LuaValue.varargsOf(copies);
+    }
+
+    private static LuaValue copy(LuaValue value, IdentityHashMap<LuaValue, LuaValue> seen, String what){
+        switch (value.type()) {
+            case LuaValue.TNIL, LuaValue.TBOOLEAN, LuaValue.TNUMBER, LuaValue.TSTRING:
+                // Immutable, safe to share between threads
+                return value;
+            case LuaValue.TTABLE: {
+                LuaValue existing = seen.get(value);
+                if (existing != null) return existing;
+                if (!value.metatag(LuaValue.INDEX).isnil()) {
+                    throw new LuaError("cannot pass a table with an __index metamethod to or from a worker (" + what
+                            + "), only its own entries would be copied");
+                }
+                LuaTable table = new LuaTable();
+                seen.put(value, table);
+                LuaValue key = LuaValue.NIL;
+                while (true) {
+                    Varargs next = value.next(key);
+                    if ((key = next.arg1()).isnil()) break;
+                    table.rawset(copy(key, seen, what), copy(next.arg(2), seen, what));
+                }
+                return table;
+            }
+            default:
+                throw new LuaError("cannot pass a " + value.typename() + " to or from a worker (" + what + ")");
+        }
+    }
+
+    /**
+     * Pure computation libraries only: no io, os or Java access.
+     */
+    private static Globals newWorkerGlobals(){
+        Globals globals = new Globals();
+        globals.load(new JseBaseLib());
+        globals.load(new PackageLib());
+        globals.load(new Bit32Lib());
+        globals.load(new TableLib());
+        globals.load(new StringLib());
+        globals.load(new CoroutineLib());
+        globals.load(new JseMathLib());
+        LoadState.install(globals);
+        LuaC.install(globals);
+        // No file access from workers. PackageLib is only loaded because the other libraries register in package.loaded,
+        // require would otherwise search package.path relative to the working directory
+        globals.set("dofile", LuaValue.NIL);
+        globals.set("loadfile", LuaValue.NIL);
+        globals.set("require", LuaValue.NIL);
+        globals.set("package", LuaValue.NIL);
+        return globals;
+    }
+
+    private LuaTable jobMethods(){
+        LuaTable methods = new LuaTable();
+        methods.set("isDone", new OneArgFunction() {
+            public LuaValue call(LuaValue self) {
+                return valueOf(checkJob(self).done);
+            }
+        });
+        methods.set("result", new VarArgFunction() {
+            public Varargs invoke(Varargs args) {
+                Job job = checkJob(args.arg1());
+                return job.done ? job.result : NIL;
+            }
+        });
+        methods.set("onDone", new TwoArgFunction() {
+            public LuaValue call(LuaValue self, LuaValue callback) {
+                Job job = checkJob(self);
+                callback.checkfunction();
+                if (job.done) runCallback(job, callback);
+                else job.callbacks.add(callback);
+                return self;
+            }
+        });
+        methods.set("await", new VarArgFunction() {
+            public Varargs invoke(Varargs args) {
+                Job job = checkJob(args.arg1());
+                if (!job.done && globals.running.isMainThread()) {
+                    throw new LuaError("job:await can only be called from a task started with scheduler.spawn");
+                }
+                // The scheduler resumes yielded tasks every tick, the job is delivered at the start of one
+                while (!job.done) {
+                    if (job.cancelled) throw new LuaError("worker job was cancelled by a reload");
+                    globals.yield(NONE);
+                }
+                return job.result;
+            }
+        });
+        return methods;
+    }
+
+    private static Job checkJob(LuaValue value){
+        return (Job) value.checkuserdata(Job.class);
+    }
+}
@@ -0,0 +1,76 @@
+package com.mnight.luascript.core.event;
+
+import net.neoforged.bus.api.ICancellableEvent;
+import org.luaj.vm2.LuaString;
+import org.luaj.vm2.LuaTable;
+import org.luaj.vm2.LuaValue;
+import org.luaj.vm2.lib.OneArgFunction;
+import org.luaj.vm2.lib.TwoArgFunction;
+import org.luaj.vm2.lib.jse.CoerceJavaToLua;
+
+/**
+ * Plain Lua table holding precomputed fields of a Java object.
+ * The wrapped object is only coerced (reflection) when a script reads {@code view.raw}.
+ */
+public class LuaObjectView extends LuaTable {
+    private static final LuaString RAW = LuaValue.valueOf("raw");
+    private static final LuaString CANCEL = LuaValue.valueOf("cancel");
+
+    // Shared by every view, so creating one costs a single table allocation
+    private static final LuaTable META = new LuaTable();
+    private static final LuaValue CANCEL_FUNCTION = new Cancel();
+
+    static {
+        META.rawset(LuaValue.INDEX, new Index());
+    }
+
+    private final Object handle;
+    private boolean cancellable = true;
+
+    public LuaObjectView(Object handle, int fieldCount){
+        super(0, fieldCount);
+        this.handle = handle;
+        setmetatable(META);
+    }
+
+    public Object handle(){
+        return handle;
+    }
+
+    /**
+     * Hides {@code cancel}, for views of events delivered after they happened, such as batched events.
+     */
+    public void withoutCancel(){
+        cancellable = false;
+    }
+
+    private boolean canCancel(){
+        return cancellable && handle instanceof ICancellableEvent;
+    }
+
+    private static class Index extends TwoArgFunction {
+        @Override
+        public LuaValue call(LuaValue table, LuaValue key) {
+            if (!(table instanceof LuaObjectView view)) return NIL;
+            if (RAW.raweq(key)) {
+                LuaValue raw = CoerceJavaToLua.coerce(view.handle);
+                view.rawset(RAW, raw);
+                return raw;
+            }
+            if (CANCEL.raweq(key) && view.canCancel()) return CANCEL_FUNCTION;
+            return NIL;
+        }
+    }
+
+    // event:cancel()
+    private static class Cancel extends OneArgFunction {
+        @Override
+        public LuaValue call(LuaValue self) {
+            if (self instanceof LuaObjectView view && view.canCancel()) {
+                ((ICancellableEvent) view.handle).setCanceled(true);
+                return NIL;
+            }
+            return argerror(1, "cancellable event expected");
+        }
+    }
+}
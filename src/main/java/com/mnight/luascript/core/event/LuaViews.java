@@ -0,0 +1,109 @@
+package com.mnight.luascript.core.event;
+
+import net.minecraft.commands.CommandSourceStack;
+import net.minecraft.core.BlockPos;
+import net.minecraft.core.registries.BuiltInRegistries;
+import net.minecraft.resources.ResourceKey;
+import net.minecraft.world.entity.player.Player;
+import net.minecraft.world.item.Item;
+import net.minecraft.world.item.ItemStack;
+import net.minecraft.world.level.Level;
+import net.minecraft.world.level.LevelAccessor;
+import net.minecraft.world.level.block.Block;
+import net.minecraft.world.level.block.state.BlockState;
+import org.luaj.vm2.LuaString;
+import org.luaj.vm2.LuaTable;
+import org.luaj.vm2.LuaValue;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Builders for the Lua values of common game objects.
+ * Registry ids are converted to Lua strings once and cached.
+ */
+public final class LuaViews {
+    public static final LuaString PLAYER = LuaValue.valueOf("player");
+    public static final LuaString POS = LuaValue.valueOf("pos");
+    public static final LuaString STATE = LuaValue.valueOf("state");
+    public static final LuaString BLOCK = LuaValue.valueOf("block");
+    public static final LuaString ITEM = LuaValue.valueOf("item");
+    public static final LuaString LEVEL = LuaValue.valueOf("level");
+    public static final LuaString NAME = LuaValue.valueOf("name");
+    public static final LuaString UUID = LuaValue.valueOf("uuid");
+    public static final LuaString ID = LuaValue.valueOf("id");
+    public static final LuaString X = LuaValue.valueOf("x");
+    public static final LuaString Y = LuaValue.valueOf("y");
+    public static final LuaString Z = LuaValue.valueOf("z");
+
+    private static final Map<Block, LuaString> BLOCK_IDS = new ConcurrentHashMap<>();
+    private static final Map<Item, LuaString> ITEM_IDS = new ConcurrentHashMap<>();
+    private static final Map<ResourceKey<Level>, LuaString> LEVEL_IDS = new ConcurrentHashMap<>();
+
+    private LuaViews() {}
+
+    /**
+     * { name, uuid, x, y, z, level } plus {@code raw} for the full Java object.
+     */
+    public static LuaValue player(Player player){
+        if (player == null) return LuaValue.NIL;
+        LuaObjectView view = new LuaObjectView(player, 6);
+        view.rawset(NAME, LuaValue.valueOf(player.getGameProfile().getName()));
+        view.rawset(UUID, LuaValue.valueOf(player.getUUID().toString()));
+        view.rawset(X, LuaValue.valueOf(player.getX()));
+        view.rawset(Y, LuaValue.valueOf(player.getY()));
+        view.rawset(Z, LuaValue.valueOf(player.getZ()));
+        view.rawset(LEVEL, levelId(player.level()));
+        return view;
+    }
+
+    /**
+     * { name, player, level } plus {@code raw} for the full CommandSourceStack. player is nil for the console.
+     */
+    public static LuaValue commandSource(CommandSourceStack source){
+        LuaObjectView view = new LuaObjectView(source, 3);
+        view.rawset(NAME, LuaValue.valueOf(source.getTextName()));
+        view.rawset(PLAYER, player(source.getPlayer()));
+        view.rawset(LEVEL, levelId(source.getLevel()));
+        return view;
+    }
+
+    /**
+     * { x, y, z }
+     */
+    public static LuaValue pos(BlockPos pos){
+        if (pos == null) return LuaValue.NIL;
+        LuaTable table = new LuaTable(0, 3);
+        table.rawset(X, LuaValue.valueOf(pos.getX()));
+        table.rawset(Y, LuaValue.valueOf(pos.getY()));
+        table.rawset(Z, LuaValue.valueOf(pos.getZ()));
+        return table;
+    }
+
+    /**
+     * { id } plus {@code raw} for the full BlockState.
+     */
+    public static LuaValue state(BlockState state){
+        if (state == null) return LuaValue.NIL;
+        LuaObjectView view = new LuaObjectView(state, 1);
+        view.rawset(ID, blockId(state));
+        return view;
+    }
+
+    public static LuaValue blockId(BlockState state){
+        if (state == null) return LuaValue.NIL;
+        return BLOCK_IDS.computeIfAbsent(state.getBlock(),
+                block -> LuaValue.valueOf(BuiltInRegistries.BLOCK.getKey(block).toString()));
+    }
+
+    public static LuaValue itemId(ItemStack stack){
+        if (stack == null) return LuaValue.NIL;
+        return ITEM_IDS.computeIfAbsent(stack.getItem(),
+                item -> LuaValue.valueOf(BuiltInRegistries.ITEM.getKey(item).toString()));
+    }
+
+    public static LuaValue levelId(LevelAccessor level){
+        if (!(level instanceof Level l)) return LuaValue.NIL;
+        return LEVEL_IDS.computeIfAbsent(l.dimension(), key -> LuaValue.valueOf(key.location().toString()));
+    }
+}
@@ -0,0 +1,74 @@
+package com.mnight.luascript.core.event;
+
+import com.mnight.luascript.core.storage.LuaValueCodec;
+import org.luaj.vm2.LuaTable;
+import org.luaj.vm2.LuaValue;
+import org.luaj.vm2.Varargs;
+import org.luaj.vm2.lib.VarArgFunction;
+
+/**
+ * An event read back from a recording, see {@code ScriptEventRecorder}. Holds the view scripts got when it fired,
+ * stored as plain values, and the ids {@link ScriptEventFilters} test, so a filtered listener receives the same
+ * events on replay as it did live. Ids a filter cannot get from the event are nil, permission is -1 without a player.
+ * <p>
+ * The view has {@code cancel} like a live {@link LuaObjectView}, doing nothing since there is no game event left
+ * to cancel. {@code view.raw} is nil.
+ */
+public final class RecordedEvent {
+    // Shared by every replayed view: __index = {cancel = no-op}
+    private static final LuaTable META = new LuaTable();
+
+    static {
+        LuaTable methods = new LuaTable();
+        methods.rawset("cancel", new VarArgFunction() {
+            @Override
+            public Varargs invoke(Varargs args) {
+                return NONE;
+            }
+        });
+        META.rawset(LuaValue.INDEX, methods);
+    }
+
+    private final byte[] view;
+    private final LuaValue block;
+    private final LuaValue item;
+    private final LuaValue dimension;
+    private final int permission;
+
+    public RecordedEvent(byte[] view, LuaValue block, LuaValue item, LuaValue dimension, int permission) {
+        this.view = view;
+        this.block = block;
+        this.item = item;
+        this.dimension = dimension;
+        this.permission = permission;
+    }
+
+    /**
+     * Decodes a new copy of the view on every call, so changes a listener makes never leak into the next replay.
+     */
+    public LuaValue view(){
+        LuaValue value = LuaValueCodec.decode(view);
+        if (value.istable()) value.setmetatable(META);
+        return value;
+    }
+
+    public byte[] viewBytes(){
+        return view;
+    }
+
+    public LuaValue block(){
+        return block;
+    }
+
+    public LuaValue item(){
+        return item;
+    }
+
+    public LuaValue dimension(){
+        return dimension;
+    }
+
+    public int permission(){
+        return permission;
+    }
+}
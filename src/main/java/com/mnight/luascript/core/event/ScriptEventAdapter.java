@@ -0,0 +1,11 @@
+package com.mnight.luascript.core.event;
+
+import org.luaj.vm2.LuaValue;
+
+/**
+ * Converts a Java event into the Lua value handed to script listeners.
+ */
+@FunctionalInterface
+public interface ScriptEventAdapter<T> {
+    LuaValue adapt(T event);
+}
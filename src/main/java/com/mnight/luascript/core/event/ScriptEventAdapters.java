@@ -0,0 +1,79 @@
+package com.mnight.luascript.core.event;
+
+import net.minecraft.world.entity.player.Player;
+import net.neoforged.neoforge.event.entity.player.PlayerEvent;
+import net.neoforged.neoforge.event.level.BlockEvent;
+import org.luaj.vm2.LuaValue;
+import org.luaj.vm2.lib.jse.CoerceJavaToLua;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Maps event classes to typed adapters so listeners get plain Lua tables
+ * instead of reflective {@code JavaInstance} wrappers.
+ * Events without an adapter still fall back to {@link CoerceJavaToLua}.
+ */
+public class ScriptEventAdapters {
+    public static final ScriptEventAdapters INSTANCE = new ScriptEventAdapters();
+
+    private static final ScriptEventAdapter<Object> FALLBACK = CoerceJavaToLua::coerce;
+
+    private final Map<Class<?>, ScriptEventAdapter<?>> adapters = new ConcurrentHashMap<>();
+    // Resolved lookups, including superclass matches and fallbacks
+    private final Map<Class<?>, ScriptEventAdapter<?>> resolved = new ConcurrentHashMap<>();
+
+    private ScriptEventAdapters() {
+        register(BlockEvent.BreakEvent.class, event -> {
+            LuaObjectView view = new LuaObjectView(event, 5);
+            view.rawset(LuaViews.PLAYER, LuaViews.player(event.getPlayer()));
+            view.rawset(LuaViews.POS, LuaViews.pos(event.getPos()));
+            view.rawset(LuaViews.STATE, LuaViews.state(event.getState()));
+            view.rawset(LuaViews.BLOCK, LuaViews.blockId(event.getState()));
+            view.rawset(LuaViews.LEVEL, LuaViews.levelId(event.getLevel()));
+            return view;
+        });
+        register(BlockEvent.EntityPlaceEvent.class, event -> {
+            LuaObjectView view = new LuaObjectView(event, 5);
+            if (event.getEntity() instanceof Player player) view.rawset(LuaViews.PLAYER, LuaViews.player(player));
+            view.rawset(LuaViews.POS, LuaViews.pos(event.getPos()));
+            view.rawset(LuaViews.STATE, LuaViews.state(event.getPlacedBlock()));
+            view.rawset(LuaViews.BLOCK, LuaViews.blockId(event.getPlacedBlock()));
+            view.rawset(LuaViews.LEVEL, LuaViews.levelId(event.getLevel()));
+            return view;
+        });
+        // Every player event: join, leave, respawn, dimension change...
+        register(PlayerEvent.class, event -> {
+            LuaObjectView view = new LuaObjectView(event, 2);
+            view.rawset(LuaViews.PLAYER, LuaViews.player(event.getEntity()));
+            view.rawset(LuaViews.LEVEL, LuaViews.levelId(event.getEntity().level()));
+            return view;
+        });
+        // Replayed events carry the view they were recorded with
+        register(RecordedEvent.class, RecordedEvent::view);
+    }
+
+    public <T> void register(Class<T> type, ScriptEventAdapter<? super T> adapter){
+        adapters.put(type, adapter);
+        resolved.clear();
+    }
+
+    /**
+     * Converts an event using the adapter registered for its class or nearest superclass.
+     */
+    @SuppressWarnings("unchecked")
+    public LuaValue adapt(Object event){
+        if (event == null) return LuaValue.NIL;
+        if (event instanceof LuaValue value) return value;
+        ScriptEventAdapter<Object> adapter = (ScriptEventAdapter<Object>) resolved.computeIfAbsent(event.getClass(), this::find);
+        return adapter.adapt(event);
+    }
+
+    private ScriptEventAdapter<?> find(Class<?> type){
+        for (Class<?> c = type; c != null; c = c.getSuperclass()) {
+            ScriptEventAdapter<?> adapter = adapters.get(c);
+            if (adapter != null) return adapter;
+        }
+        return FALLBACK;
+    }
+}
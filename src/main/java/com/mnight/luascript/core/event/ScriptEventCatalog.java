@@ -0,0 +1,92 @@
+package com.mnight.luascript.core.event;
+
+import com.mnight.luascript.core.LuaEngineManager;
+import com.mnight.luascript.core.ScriptEventRegistry;
+import net.neoforged.bus.api.Event;
+import net.neoforged.bus.api.EventPriority;
+import net.neoforged.neoforge.common.NeoForge;
+import net.neoforged.neoforge.event.entity.player.PlayerEvent;
+import net.neoforged.neoforge.event.level.BlockEvent;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.function.Consumer;
+import java.util.function.IntPredicate;
+
+/**
+ * The NeoForge events scripts can listen to, by their script name.
+ * A bus listener is only added while at least one Lua listener exists for the event,
+ * so events no script uses cost nothing to dispatch.
+ */
+public class ScriptEventCatalog {
+    public static final ScriptEventCatalog INSTANCE = new ScriptEventCatalog();
+
+    private static final class Entry<T extends Event> {
+        final String name;
+        final Class<T> type;
+        final int id;
+        final Consumer<T> listener;
+        // Registries with at least one Lua listener for this event
+        final Set<ScriptEventRegistry> listening = new HashSet<>(2);
+
+        Entry(String name, Class<T> type) {
+            this.name = name;
+            this.type = type;
+            this.id = ScriptEventRegistry.idOf(name);
+            this.listener = event -> LuaEngineManager.INSTANCE.dispatch(id, event);
+        }
+    }
+
+    private final List<Entry<?>> entries = new ArrayList<>();
+
+    private ScriptEventCatalog() {
+        define("block_break", BlockEvent.BreakEvent.class);
+        define("block_place", BlockEvent.EntityPlaceEvent.class);
+        define("player_join", PlayerEvent.PlayerLoggedInEvent.class);
+        define("player_leave", PlayerEvent.PlayerLoggedOutEvent.class);
+        define("player_respawn", PlayerEvent.PlayerRespawnEvent.class);
+        define("player_change_dimension", PlayerEvent.PlayerChangedDimensionEvent.class);
+    }
+
+    /**
+     * Makes a NeoForge event available to scripts under a name.
+     * Call before scripts load; the bus listener is added on the next {@link #sync}.
+     */
+    public <T extends Event> void define(String name, Class<T> type){
+        // Resolve the id before locking, the registry calls sync() while holding its own lock
+        Entry<T> entry = new Entry<>(name, type);
+        synchronized (this) {
+            entries.add(entry);
+        }
+    }
+
+    public synchronized boolean isDefined(String name){
+        for (Entry<?> entry : entries) {
+            if (entry.name.equals(name)) return true;
+        }
+        return false;
+    }
+
+    /**
+     * Adds or removes bus listeners to match which events currently have Lua listeners in any runtime.
+     * Called by a {@link ScriptEventRegistry} whenever its listeners change.
+     */
+    public synchronized void sync(ScriptEventRegistry registry, IntPredicate hasListeners){
+        for (Entry<?> entry : entries) {
+            boolean wasSubscribed = !entry.listening.isEmpty();
+            if (hasListeners.test(entry.id)) entry.listening.add(registry);
+            else entry.listening.remove(registry);
+
+            boolean wanted = !entry.listening.isEmpty();
+            if (wanted == wasSubscribed) continue;
+            if (wanted) subscribe(entry);
+            else NeoForge.EVENT_BUS.unregister(entry.listener);
+        }
+    }
+
+    private static <T extends Event> void subscribe(Entry<T> entry){
+        NeoForge.EVENT_BUS.addListener(EventPriority.NORMAL, false, entry.type, entry.listener);
+    }
+}
@@ -0,0 +1,188 @@
+package com.mnight.luascript.core.event;
+
+import net.minecraft.world.entity.player.Player;
+import net.minecraft.world.level.LevelAccessor;
+import net.minecraft.world.level.block.state.BlockState;
+import net.neoforged.neoforge.event.entity.player.PlayerEvent;
+import net.neoforged.neoforge.event.level.BlockEvent;
+import org.luaj.vm2.LuaError;
+import org.luaj.vm2.LuaTable;
+import org.luaj.vm2.LuaValue;
+import org.luaj.vm2.Varargs;
+
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+import java.util.function.Predicate;
+
+/**
+ * Compiles the filter table of {@code events.listen(name, callback, filter)} into a Java predicate,
+ * tested on the raw event before it is converted or any Lua runs.
+ * <p>
+ * Supported keys, each taking one id or a list of ids ({@code "minecraft:"} may be left out):
+ * <ul>
+ * <li>{@code block} - the block of the event</li>
+ * <li>{@code item} - the item in the main hand of the event's player</li>
+ * <li>{@code dimension} - the dimension the event happened in</li>
+ * <li>{@code permission} - minimum permission level of the event's player</li>
+ * </ul>
+ * A key the event cannot provide, such as {@code block} for {@code player_join}, never matches.
+ * Replayed {@link RecordedEvent}s are matched on the ids captured when they were recorded.
+ */
+public class ScriptEventFilters {
+    public static final ScriptEventFilters INSTANCE = new ScriptEventFilters();
+
+    /**
+     * What a filter can look at in one kind of event. Any accessor may be null.
+     */
+    public record Subject<T>(Function<? super T, Player> player,
+                             Function<? super T, BlockState> block,
+                             Function<? super T, LevelAccessor> level) {}
+
+    private static final Subject<Object> NONE = new Subject<>(null, null, null);
+
+    private final Map<Class<?>, Subject<?>> subjects = new ConcurrentHashMap<>();
+    // Resolved lookups, including superclass matches
+    private final Map<Class<?>, Subject<?>> resolved = new ConcurrentHashMap<>();
+
+    private ScriptEventFilters() {
+        register(BlockEvent.class, new Subject<>(null, BlockEvent::getState, BlockEvent::getLevel));
+        register(BlockEvent.BreakEvent.class, new Subject<>(BlockEvent.BreakEvent::getPlayer, BlockEvent::getState, BlockEvent::getLevel));
+        register(BlockEvent.EntityPlaceEvent.class, new Subject<>(
+                event -> event.getEntity() instanceof Player player ? player : null,
+                BlockEvent.EntityPlaceEvent::getPlacedBlock, BlockEvent::getLevel));
+        register(PlayerEvent.class, new Subject<>(PlayerEvent::getEntity, null, event -> event.getEntity().level()));
+    }
+
+    public <T> void register(Class<T> type, Subject<? super T> subject){
+        subjects.put(type, subject);
+        resolved.clear();
+    }
+
+    /**
+     * Returns the predicate for a filter table, or null when there is nothing to filter.
+     * @throws LuaError for unknown keys or malformed values, so mistakes show up when the script loads
+     */
+    public Predicate<Object> compile(LuaValue filter){
+        // null when a script omits the filter, the Lua API coerces nil arguments to null
+        if (filter == null || filter.isnil()) return null;
+        LuaTable table = filter.checktable();
+        Predicate<Object> predicate = null;
+        LuaValue key = LuaValue.NIL;
+        while (true) {
+            Varargs next = table.next(key);
+            if ((key = next.arg1()).isnil()) break;
+            Predicate<Object> clause = clause(key.checkjstring(), next.arg(2));
+            predicate = predicate == null ? clause : predicate.and(clause);
+        }
+        return predicate;
+    }
+
+    private Predicate<Object> clause(String key, LuaValue value){
+        switch (key) {
+            case "block": {
+                Set<LuaValue> ids = idSet(key, value);
+                return event -> {
+                    LuaValue id = blockId(event);
+                    return id != null && ids.contains(id);
+                };
+            }
+            case "item": {
+                Set<LuaValue> ids = idSet(key, value);
+                return event -> {
+                    LuaValue id = itemId(event);
+                    return id != null && ids.contains(id);
+                };
+            }
+            case "dimension": {
+                Set<LuaValue> ids = idSet(key, value);
+                return event -> {
+                    LuaValue id = dimensionId(event);
+                    return id != null && ids.contains(id);
+                };
+            }
+            case "permission": {
+                int level = value.checkint();
+                return event -> {
+                    if (event instanceof RecordedEvent recorded) return recorded.permission() >= level;
+                    Player player = get(event, Subject::player);
+                    return player != null && player.hasPermissions(level);
+                };
+            }
+            default:
+                throw new LuaError("unknown event filter '" + key + "', expected block, item, dimension or permission");
+        }
+    }
+
+    /**
+     * Captures what the filters look at in an event, for replaying it later.
+     * @param view the encoded view scripts got for the event
+     */
+    public RecordedEvent record(Object event, byte[] view){
+        Player player = get(event, Subject::player);
+        int permission = -1;
+        if (player != null) {
+            // Only hasPermissions is public, so probe downwards from the highest level
+            for (permission = 4; permission > 0 && !player.hasPermissions(permission); permission--) {}
+        }
+        return new RecordedEvent(view, orNil(blockId(event)), orNil(itemId(event)), orNil(dimensionId(event)), permission);
+    }
+
+    private static LuaValue orNil(LuaValue id){
+        return id != null ? id : LuaValue.NIL;
+    }
+
+    private LuaValue blockId(Object event){
+        if (event instanceof RecordedEvent recorded) return recorded.block();
+        BlockState state = get(event, Subject::block);
+        return state != null ? LuaViews.blockId(state) : null;
+    }
+
+    private LuaValue itemId(Object event){
+        if (event instanceof RecordedEvent recorded) return recorded.item();
+        Player player = get(event, Subject::player);
+        return player != null ? LuaViews.itemId(player.getMainHandItem()) : null;
+    }
+
+    private LuaValue dimensionId(Object event){
+        if (event instanceof RecordedEvent recorded) return recorded.dimension();
+        LevelAccessor level = get(event, Subject::level);
+        return level != null ? LuaViews.levelId(level) : null;
+    }
+
+    @SuppressWarnings("unchecked")
+    private <V> V get(Object event, Function<Subject<Object>, Function<? super Object, V>> accessor){
+        Subject<Object> subject = (Subject<Object>) resolved.computeIfAbsent(event.getClass(), this::find);
+        Function<? super Object, V> function = accessor.apply(subject);
+        return function != null ? function.apply(event) : null;
+    }
+
+    private Subject<?> find(Class<?> type){
+        for (Class<?> c = type; c != null; c = c.getSuperclass()) {
+            Subject<?> subject = subjects.get(c);
+            if (subject != null) return subject;
+        }
+        return NONE;
+    }
+
+    // Ids are compared as the cached Lua strings from LuaViews, so matching is a single hash lookup
+    private static Set<LuaValue> idSet(String key, LuaValue value){
+        Set<LuaValue> ids = new HashSet<>();
+        if (value.istable()) {
+            LuaTable list = value.checktable();
+            for (int i = 1; i <= list.length(); i++) ids.add(normalize(key, list.get(i)));
+        } else {
+            ids.add(normalize(key, value));
+        }
+        if (ids.isEmpty()) throw new LuaError("event filter '" + key + "' needs at least one id");
+        return ids;
+    }
+
+    private static LuaValue normalize(String key, LuaValue id){
+        if (!id.isstring()) throw new LuaError("event filter '" + key + "' expects ids as strings, got " + id.typename());
+        String text = id.tojstring();
+        return LuaValue.valueOf(text.indexOf(':') < 0 ? "minecraft:" + text : text);
+    }
+}
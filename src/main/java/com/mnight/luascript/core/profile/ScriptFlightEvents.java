@@ -0,0 +1,69 @@
+package com.mnight.luascript.core.profile;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Java Flight Recorder events for Lua activity, so script work lines up with GC pauses and tick time in a recording.
+ * Listed under the "LuaScript" category. They are enabled by default without a threshold.
+ * A recording settings file can raise the threshold of {@code luascript.Call} to drop short calls.
+ * <p>
+ * While no recording is running, an event is only created and begun. Fields are filled in when it is committed.
+ */
+public final class ScriptFlightEvents {
+    private ScriptFlightEvents() {}
+
+    @Name("luascript.Compile")
+    @Label("Lua Compile")
+    @Category("LuaScript")
+    @Description("A script file compiled from source by LuaC")
+    @StackTrace(false)
+    public static final class Compile extends Event {
+        @Label("Chunk")
+        public String chunk;
+
+        @Label("Source Size")
+        @DataAmount
+        public long sourceBytes;
+    }
+
+    @Name("luascript.Undump")
+    @Label("Lua Undump")
+    @Category("LuaScript")
+    @Description("A compiled script read back from the compile cache by LoadState")
+    @StackTrace(false)
+    public static final class Undump extends Event {
+        @Label("Chunk")
+        public String chunk;
+
+        @Label("Loaded")
+        @Description("False when the cache entry was unreadable and the file is compiled again")
+        public boolean loaded;
+    }
+
+    @Name("luascript.Call")
+    @Label("Lua Call")
+    @Category("LuaScript")
+    @Description("One entry into Lua: an event listener, a command, a script chunk, a scheduler task resume or a worker job")
+    @StackTrace(false)
+    public static final class Call extends Event {
+        @Label("Kind")
+        public String kind;
+
+        @Label("Chunk")
+        public String chunk;
+
+        @Label("Line")
+        @Description("Line the called function is defined on, 0 for a whole chunk")
+        public int line;
+
+        @Label("Outcome")
+        @Description("ok or error; for task resumes yield, sleep, done or error")
+        public String outcome;
+    }
+}
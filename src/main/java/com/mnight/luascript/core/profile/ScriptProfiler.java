@@ -0,0 +1,180 @@
+package com.mnight.luascript.core.profile;
+
+import com.mnight.luascript.core.LuaEngineManager;
+import org.luaj.vm2.LuaClosure;
+import org.luaj.vm2.LuaValue;
+import org.luaj.vm2.Prototype;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Predicate;
+
+/**
+ * Always-on timing of every Lua entry point (event listeners, commands, recipe tasks).
+ * Each call site is identified by the script that registered it, its kind and the script file and line of the callback,
+ * so data survives reloads of unchanged scripts. Sites a reload does not register again, e.g. because an edit
+ * moved the callback to another line, are dropped by {@link #sweep}.
+ * Calls recorded with a {@link ScriptFlightEvents.Call} also show up in Java Flight Recorder.
+ */
+public class ScriptProfiler {
+    public static final ScriptProfiler INSTANCE = new ScriptProfiler();
+
+    /**
+     * One profiled entry point. Look it up once (e.g. at registration) and reuse it for every call.
+     */
+    public static final class Site {
+        private final String owner;
+        private final String kind;
+        private final String chunk;
+        private final int line;
+        private final String location;
+        private final LatencyHistogram histogram = new LatencyHistogram();
+        private final AtomicLong allocatedBytes = new AtomicLong();
+        private final AtomicLong errors = new AtomicLong();
+        // Value of ScriptProfiler.generation when the site was last looked up
+        private volatile long generation;
+
+        private Site(String owner, String kind, String chunk, int line, String location) {
+            this.owner = owner;
+            this.kind = kind;
+            this.chunk = chunk;
+            this.line = line;
+            this.location = location;
+        }
+
+        public void record(long startNanos){
+            histogram.record(System.nanoTime() - startNanos);
+        }
+
+        /**
+         * Begins the flight recorder event of one call. Pass it back to {@link #record(long, ScriptFlightEvents.Call, String)}.
+         */
+        public ScriptFlightEvents.Call begin(){
+            ScriptFlightEvents.Call event = new ScriptFlightEvents.Call();
+            event.begin();
+            return event;
+        }
+
+        /**
+         * Records a call like {@link #record(long)} and commits its flight recorder event if a recording wants it.
+         */
+        public void record(long startNanos, ScriptFlightEvents.Call event, String outcome){
+            record(startNanos);
+            if ("error".equals(outcome)) errors.incrementAndGet();
+            event.end();
+            if (event.shouldCommit()) {
+                event.kind = kind;
+                event.chunk = chunk;
+                event.line = line;
+                event.outcome = outcome;
+                event.commit();
+            }
+        }
+
+        /**
+         * Adds the bytes a call charged to its {@link org.luaj.vm2.ExecutionBudget}.
+         */
+        public void recordAllocation(long bytes){
+            if (bytes > 0) allocatedBytes.addAndGet(bytes);
+        }
+
+        public long allocatedBytes(){
+            return allocatedBytes.get();
+        }
+
+        /**
+         * Calls recorded with the outcome {@code "error"}.
+         */
+        public long errors(){
+            return errors.get();
+        }
+
+        public String kind(){
+            return kind;
+        }
+
+        public String location(){
+            return location;
+        }
+
+        public LatencyHistogram histogram(){
+            return histogram;
+        }
+    }
+
+    private final Map<String, Site> sites = new ConcurrentHashMap<>();
+    private final AtomicLong generation = new AtomicLong();
+
+    private ScriptProfiler() {}
+
+    /**
+     * Site of a Lua callback, located by the Prototype it was compiled from.
+     * Other functions, such as a library function passed as a callback, have no source line and are
+     * located by the script that registered them, so a reload finds the same site again.
+     * @param owner script file that registered the callback, may be null
+     */
+    public Site site(String kind, LuaValue callback, String owner){
+        String registrant = owner != null ? owner : "unknown";
+        if (callback instanceof LuaClosure closure) {
+            Prototype p = closure.p;
+            String chunk = LuaEngineManager.INSTANCE.scriptName(p.shortsource());
+            return site(registrant, kind, chunk, p.linedefined, chunk + ":" + p.linedefined);
+        }
+        return site(registrant, kind, registrant, 0, registrant);
+    }
+
+    /**
+     * Site of the script file itself, such as running its chunk.
+     */
+    public Site site(String kind, String owner){
+        return site(owner, kind, owner, 0, owner);
+    }
+
+    private Site site(String owner, String kind, String chunk, int line, String location){
+        Site site = sites.computeIfAbsent(owner + " | " + kind + " @ " + location, key -> new Site(owner, kind, chunk, line, location));
+        site.generation = generation.get();
+        return site;
+    }
+
+    /**
+     * Starts a reload. Sites looked up from now on are kept by the {@link #sweep} that ends it.
+     * @return the mark to pass to sweep
+     */
+    public long mark(){
+        return generation.incrementAndGet();
+    }
+
+    /**
+     * Drops the sites of the matching scripts that were not looked up again since {@link #mark()},
+     * so callbacks an edit removed or moved stop showing up in {@code /luascript profile}.
+     * @param owners tests the script file that registered a site, e.g. "server/a.lua"
+     */
+    public void sweep(long mark, Predicate<String> owners){
+        sites.values().removeIf(site -> site.generation < mark && owners.test(site.owner));
+    }
+
+    /**
+     * Sites ordered by total time spent, worst first.
+     */
+    public List<Site> top(int limit){
+        List<Site> sorted = new ArrayList<>(sites.values());
+        sorted.removeIf(site -> site.histogram.count() == 0);
+        sorted.sort(Comparator.comparingLong((Site site) -> site.histogram.totalNanos()).reversed());
+        return sorted.subList(0, Math.min(limit, sorted.size()));
+    }
+
+    /**
+     * Zeroes every histogram, allocation and error counter. Sites are kept, since listeners hold on to them.
+     */
+    public void reset(){
+        sites.values().forEach(site -> {
+            site.histogram.reset();
+            site.allocatedBytes.set(0);
+            site.errors.set(0);
+        });
+    }
+}
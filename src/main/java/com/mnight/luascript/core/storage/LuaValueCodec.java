@@ -0,0 +1,118 @@
+package com.mnight.luascript.core.storage;
+
+import org.luaj.vm2.LuaError;
+import org.luaj.vm2.LuaString;
+import org.luaj.vm2.LuaTable;
+import org.luaj.vm2.LuaValue;
+import org.luaj.vm2.Varargs;
+
+import java.io.*;
+import java.util.IdentityHashMap;
+
+/**
+ * Binary form of plain Lua values: nil, booleans, numbers, strings and tables of those.
+ * A table referenced twice is written twice; a table that contains itself cannot be written.
+ * Strings are kept as raw bytes, so binary strings survive a round trip.
+ */
+public final class LuaValueCodec {
+    private static final byte NIL = 0, FALSE = 1, TRUE = 2, INT = 3, DOUBLE = 4, STRING = 5, TABLE = 6, END = 7;
+
+    private LuaValueCodec() {}
+
+    public static byte[] encode(LuaValue value){
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(64);
+        try {
+            encode(value, new DataOutputStream(bytes));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * @throws LuaError for functions, userdata, threads and tables that contain themselves
+     */
+    public static void encode(LuaValue value, DataOutput out) throws IOException {
+        write(value, out, new IdentityHashMap<>());
+    }
+
+    public static LuaValue decode(byte[] bytes){
+        try {
+            return decode(new DataInputStream(new ByteArrayInputStream(bytes)));
+        } catch (IOException e) {
+            throw new LuaError("corrupt stored value: " + e.getMessage());
+        }
+    }
+
+    public static LuaValue decode(DataInput in) throws IOException {
+        return read(in.readByte(), in);
+    }
+
+    private static void write(LuaValue value, DataOutput out, IdentityHashMap<LuaValue, Boolean> open) throws IOException {
+        switch (value.type()) {
+            case LuaValue.TNIL:
+                out.writeByte(NIL);
+                return;
+            case LuaValue.TBOOLEAN:
+                out.writeByte(value.toboolean() ? TRUE : FALSE);
+                return;
+            case LuaValue.TNUMBER:
+                if (value.isint()) {
+                    out.writeByte(INT);
+                    out.writeInt(value.toint());
+                } else {
+                    out.writeByte(DOUBLE);
+                    out.writeDouble(value.todouble());
+                }
+                return;
+            case LuaValue.TSTRING: {
+                LuaString string = value.checkstring();
+                out.writeByte(STRING);
+                out.writeInt(string.m_length);
+                out.write(string.m_bytes, string.m_offset, string.m_length);
+                return;
+            }
+            case LuaValue.TTABLE: {
+                if (open.put(value, Boolean.TRUE) != null) throw new LuaError("cannot store a table that contains itself");
+                out.writeByte(TABLE);
+                LuaValue key = LuaValue.NIL;
+                while (true) {
+                    Varargs next = value.next(key);
+                    if ((key = next.arg1()).isnil()) break;
+                    write(key, out, open);
+                    write(next.arg(2), out, open);
+                }
+                out.writeByte(END);
+                open.remove(value);
+                return;
+            }
+            default:
+                throw new LuaError("cannot store a " + value.typename());
+        }
+    }
+
+    private static LuaValue read(byte tag, DataInput in) throws IOException {
+        switch (tag) {
+            case NIL: return LuaValue.NIL;
+            case FALSE: return LuaValue.FALSE;
+            case TRUE: return LuaValue.TRUE;
+            case INT: return LuaValue.valueOf(in.readInt());
+            case DOUBLE: return LuaValue.valueOf(in.readDouble());
+            case STRING: {
+                byte[] bytes = new byte[in.readInt()];
+                in.readFully(bytes);
+                return LuaString.valueUsing(bytes);
+            }
+            case TABLE: {
+                LuaTable table = new LuaTable();
+                byte keyTag;
+                while ((keyTag = in.readByte()) != END) {
+                    LuaValue key = read(keyTag, in);
+                    table.rawset(key, read(in.readByte(), in));
+                }
+                return table;
+            }
+            default: throw new IOException("unknown value tag " + tag);
+        }
+    }
+}
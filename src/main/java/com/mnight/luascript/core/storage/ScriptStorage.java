@@ -0,0 +1,199 @@
+package com.mnight.luascript.core.storage;
+
+import com.mnight.luascript.Config;
+import net.minecraft.server.MinecraftServer;
+import net.minecraft.world.level.storage.LevelResource;
+import org.luaj.vm2.LuaError;
+import org.luaj.vm2.LuaTable;
+import org.luaj.vm2.LuaValue;
+import org.luaj.vm2.Varargs;
+import org.luaj.vm2.lib.OneArgFunction;
+import org.luaj.vm2.lib.TwoArgFunction;
+import org.luaj.vm2.lib.VarArgFunction;
+import org.luaj.vm2.lib.ZeroArgFunction;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Persistent key-value storage for scripts, one {@link StorageLog} per world at {@code <world>/luascript/storage.log}.
+ * <p>
+ * Lua API ({@code storage} global, server only):
+ * <ul>
+ * <li>{@code storage.get(key)} returns the stored value or nil</li>
+ * <li>{@code storage.put(key, value)} stores nil, a boolean, number, string or table of those; nil deletes</li>
+ * <li>{@code storage.delete(key)} returns whether the key existed</li>
+ * <li>{@code for key, value in storage.range(from, to, limit)} visits keys from {@code from} up to, not including,
+ * {@code to} in sorted order. {@code to} and {@code limit} are optional, e.g. {@code storage.range("stats:", "stats;")}</li>
+ * <li>{@code storage.compact()} reclaims space of old values in the background</li>
+ * </ul>
+ * Values are copies: changing a table after put or get does not change what is stored.
+ * Writes reach the disk within a second and the log is compacted in the background, so neither stalls the tick.
+ * Storage opens when the server starts, after scripts first load: use it from events, commands and tasks,
+ * not from the top level of a script.
+ */
+public class ScriptStorage {
+    public static final ScriptStorage INSTANCE = new ScriptStorage();
+
+    private static final long FLUSH_INTERVAL_MS = 1000;
+    // Compact only once at least this much is garbage, and there is more garbage than live data
+    private static final long MIN_COMPACT_GARBAGE = 1 << 20;
+
+    private volatile StorageLog log;
+    private ScheduledExecutorService maintenance;
+
+    private ScriptStorage() {}
+
+    /**
+     * Creates the {@code storage} table.
+     */
+    public LuaTable createLibrary(){
+        LuaTable storage = new LuaTable();
+        storage.set("get", new OneArgFunction() {
+            public LuaValue call(LuaValue key) {
+                byte[] value = io(() -> log().get(key.checkjstring()));
+                return value != null ? LuaValueCodec.decode(value) : NIL;
+            }
+        });
+        storage.set("put", new TwoArgFunction() {
+            public LuaValue call(LuaValue key, LuaValue value) {
+                String name = key.checkjstring();
+                byte[] bytes = value.isnil() ? null : LuaValueCodec.encode(value);
+                io(() -> {
+                    log().put(name, bytes);
+                    return null;
+                });
+                return NONE;
+            }
+        });
+        storage.set("delete", new OneArgFunction() {
+            public LuaValue call(LuaValue key) {
+                return valueOf(io(() -> log().delete(key.checkjstring())));
+            }
+        });
+        storage.set("range", new VarArgFunction() {
+            public Varargs invoke(Varargs args) {
+                String from = args.optjstring(1, "");
+                String to = args.optjstring(2, null);
+                int limit = args.optint(3, Integer.MAX_VALUE);
+                return range(log().keys(from, to, limit));
+            }
+        });
+        storage.set("compact", new ZeroArgFunction() {
+            public LuaValue call() {
+                StorageLog current = log();
+                maintenance.execute(() -> compact(current));
+                return NONE;
+            }
+        });
+        return storage;
+    }
+
+    /**
+     * Opens the storage of the world a server is about to start.
+     */
+    public synchronized void open(MinecraftServer server){
+        close();
+        Path path = server.getWorldPath(LevelResource.ROOT).resolve("luascript").resolve("storage.log");
+        StorageLog current;
+        try {
+            current = StorageLog.open(path);
+        } catch (IOException e) {
+            System.err.println("[LuaScript] Failed to open script storage " + path + ": " + e.getMessage());
+            return;
+        }
+        System.out.println("[LuaScript] Opened script storage with " + current.count() + " keys");
+
+        maintenance = Executors.newSingleThreadScheduledExecutor(task -> {
+            Thread thread = new Thread(task, "LuaScript-Storage");
+            thread.setDaemon(true);
+            return thread;
+        });
+        maintenance.scheduleWithFixedDelay(() -> flush(current), FLUSH_INTERVAL_MS, FLUSH_INTERVAL_MS, TimeUnit.MILLISECONDS);
+        long compactMinutes = Config.STORAGE_COMPACT_MINUTES.get();
+        if (compactMinutes > 0) {
+            maintenance.scheduleWithFixedDelay(() -> {
+                long garbage = current.garbageBytes();
+                if (garbage >= MIN_COMPACT_GARBAGE && garbage > current.liveBytes()) compact(current);
+            }, compactMinutes, compactMinutes, TimeUnit.MINUTES);
+        }
+        log = current;
+    }
+
+    /**
+     * Forces everything to disk and closes the storage. Called once the server has stopped.
+     */
+    public synchronized void close(){
+        if (log == null) return;
+        // No interrupts: an interrupted FileChannel operation would close the log
+        maintenance.shutdown();
+        try {
+            maintenance.awaitTermination(10, TimeUnit.SECONDS);
+            log.close();
+        } catch (IOException e) {
+            System.err.println("[LuaScript] Failed to close script storage: " + e.getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        log = null;
+        maintenance = null;
+    }
+
+    private StorageLog log(){
+        StorageLog current = log;
+        if (current == null) throw new LuaError("storage is only available while a world is loaded");
+        return current;
+    }
+
+    private static Varargs range(List<String> keys){
+        // Keys are taken up front; values are read as the loop reaches them, skipping keys deleted meanwhile
+        return new VarArgFunction() {
+            int next;
+
+            public Varargs invoke(Varargs args) {
+                while (next < keys.size()) {
+                    String key = keys.get(next++);
+                    byte[] value = io(() -> INSTANCE.log().get(key));
+                    if (value != null) return varargsOf(valueOf(key), LuaValueCodec.decode(value));
+                }
+                return NIL;
+            }
+        };
+    }
+
+    private static void flush(StorageLog log){
+        try {
+            log.flush();
+        } catch (IOException e) {
+            System.err.println("[LuaScript] Failed to flush script storage: " + e.getMessage());
+        }
+    }
+
+    private static void compact(StorageLog log){
+        long start = System.nanoTime();
+        long garbage = log.garbageBytes();
+        try {
+            log.compact();
+            System.out.println("[LuaScript] Compacted script storage, reclaimed " + (garbage >> 10) + " KB in "
+                    + (System.nanoTime() - start) / 1_000_000 + " ms");
+        } catch (IOException e) {
+            System.err.println("[LuaScript] Failed to compact script storage: " + e.getMessage());
+        }
+    }
+
+    private interface StorageAction<T> {
+        T run() throws IOException;
+    }
+
+    private static <T> T io(StorageAction<T> action){
+        try {
+            return action.run();
+        } catch (IOException e) {
+            throw new LuaError("storage: " + e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,321 @@
+package com.mnight.luascript.core.storage;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.zip.CRC32C;
+
+/**
+ * An append-only key-value log. Every put or delete appends one record, so an update costs one write
+ * into the OS page cache no matter how much is stored. A sorted in-memory index maps each key to
+ * the position of its latest value, which serves gets and ordered range scans.
+ * <p>
+ * Record layout: key length, value length (-1 for a delete), key, value, CRC32C of all before it.
+ * On open the log is scanned to rebuild the index, and a torn record at the end (a crash mid-write) is cut off.
+ * {@link #compact()} rewrites only the live records into a new file, without blocking writers while it copies.
+ * <p>
+ * Thread-safe. Nothing is forced to disk by writes, call {@link #flush()} periodically.
+ */
+public final class StorageLog implements Closeable {
+    private static final int MAGIC = 0x4C534B56; // "LSKV"
+    private static final int VERSION = 1;
+    private static final int HEADER_BYTES = 8;
+    // Key length, value length and checksum
+    private static final int RECORD_OVERHEAD = 12;
+    private static final int MAX_KEY_BYTES = 1 << 16;
+    private static final int MAX_VALUE_BYTES = 1 << 26;
+
+    private record Slot(long position, int length) {}
+
+    private interface RecordVisitor {
+        void visit(String key, byte[] value, long valuePosition, int recordBytes) throws IOException;
+    }
+
+    private final Path path;
+    private FileChannel channel;
+    private NavigableMap<String, Slot> index = new TreeMap<>();
+    // End of the last record, where the next one is appended
+    private long size;
+    // Bytes of records that are still the latest for their key
+    private long liveBytes;
+    private boolean compacting;
+    private volatile boolean dirty;
+
+    private StorageLog(Path path, FileChannel channel) {
+        this.path = path;
+        this.channel = channel;
+    }
+
+    /**
+     * Opens or creates a log and rebuilds its index.
+     */
+    public static StorageLog open(Path path) throws IOException {
+        Files.createDirectories(path.getParent());
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        StorageLog log = new StorageLog(path, channel);
+        try {
+            log.load();
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+        return log;
+    }
+
+    private void load() throws IOException {
+        long length = channel.size();
+        if (length < HEADER_BYTES) {
+            channel.truncate(0);
+            size = writeHeader(channel);
+            return;
+        }
+        ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+        readFully(channel, header, 0);
+        if (header.getInt(0) != MAGIC || header.getInt(4) != VERSION) {
+            throw new IOException(path.getFileName() + " is not a storage log of version " + VERSION);
+        }
+        size = scan(channel, HEADER_BYTES, length, this::index);
+        if (size < length) {
+            System.err.println("[LuaScript] Storage log " + path.getFileName() + " had " + (length - size) + " bytes of incomplete writes, discarded them");
+            channel.truncate(size);
+        }
+    }
+
+    public synchronized byte[] get(String key) throws IOException {
+        Slot slot = index.get(key);
+        return slot != null ? read(channel, slot) : null;
+    }
+
+    public synchronized boolean contains(String key){
+        return index.containsKey(key);
+    }
+
+    /**
+     * Stores a value, or deletes the key when value is null.
+     */
+    public synchronized void put(String key, byte[] value) throws IOException {
+        if (value == null && !index.containsKey(key)) return;
+        size = append(channel, size, key, value, this::index);
+        dirty = true;
+    }
+
+    /**
+     * @return whether the key existed
+     */
+    public synchronized boolean delete(String key) throws IOException {
+        if (!index.containsKey(key)) return false;
+        put(key, null);
+        return true;
+    }
+
+    /**
+     * Keys from {@code from} (inclusive) to {@code to} (exclusive, or the end when null), in order.
+     */
+    public synchronized List<String> keys(String from, String to, int limit){
+        if (to != null && to.compareTo(from) <= 0) return List.of();
+        NavigableMap<String, Slot> range = to == null ? index.tailMap(from, true) : index.subMap(from, true, to, false);
+        List<String> keys = new ArrayList<>(Math.min(limit, range.size()));
+        for (String key : range.keySet()) {
+            if (keys.size() >= limit) break;
+            keys.add(key);
+        }
+        return keys;
+    }
+
+    public synchronized int count(){
+        return index.size();
+    }
+
+    /**
+     * Bytes taken by the latest record of every key.
+     */
+    public synchronized long liveBytes(){
+        return liveBytes;
+    }
+
+    /**
+     * Bytes taken by overwritten and deleted records, reclaimed by {@link #compact()}.
+     */
+    public synchronized long garbageBytes(){
+        return size - HEADER_BYTES - liveBytes;
+    }
+
+    /**
+     * Forces written records to disk. Does not hold the lock while waiting, so writers are never stalled.
+     */
+    public void flush() throws IOException {
+        if (!dirty) return;
+        FileChannel target;
+        synchronized (this) {
+            target = channel;
+            dirty = false;
+        }
+        try {
+            target.force(false);
+        } catch (ClosedChannelException e) {
+            // Replaced by compaction, which forced the new file itself
+        }
+    }
+
+    /**
+     * Rewrites the live records into a fresh file and swaps it in. Records are copied without the lock;
+     * only the records appended meanwhile are replayed while holding it.
+     */
+    public void compact() throws IOException {
+        FileChannel source;
+        Map<String, Slot> snapshot;
+        long copiedUpTo;
+        synchronized (this) {
+            if (compacting) return;
+            compacting = true;
+            source = channel;
+            snapshot = new TreeMap<>(index);
+            copiedUpTo = size;
+        }
+        Path temp = path.resolveSibling(path.getFileName() + ".compact");
+        try (FileChannel target = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            NavigableMap<String, Slot> newIndex = new TreeMap<>();
+            long[] newLive = new long[1];
+            RecordVisitor indexer = (key, value, position, bytes) -> newLive[0] += update(newIndex, key, value, position, bytes);
+            long position = writeHeader(target);
+            for (Map.Entry<String, Slot> entry : snapshot.entrySet()) {
+                position = append(target, position, entry.getKey(), read(source, entry.getValue()), indexer);
+            }
+
+            synchronized (this) {
+                long[] end = {position};
+                scan(source, copiedUpTo, size, (key, value, valuePosition, bytes) -> end[0] = append(target, end[0], key, value, indexer));
+                target.force(true);
+                target.close();
+                source.close();
+                try {
+                    Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                } finally {
+                    // On failure this reopens the untouched old log
+                    channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE);
+                }
+                index = newIndex;
+                liveBytes = newLive[0];
+                size = end[0];
+                dirty = false;
+            }
+        } finally {
+            synchronized (this) {
+                compacting = false;
+            }
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (!channel.isOpen()) return;
+        channel.force(false);
+        channel.close();
+    }
+
+    private void index(String key, byte[] value, long valuePosition, int recordBytes){
+        liveBytes += update(index, key, value, valuePosition, recordBytes);
+    }
+
+    /**
+     * Points a key at its newest record. Returns the change in live bytes.
+     */
+    private static long update(NavigableMap<String, Slot> index, String key, byte[] value, long valuePosition, int recordBytes){
+        Slot previous = value == null ? index.remove(key) : index.put(key, new Slot(valuePosition, value.length));
+        long delta = value == null ? 0 : recordBytes;
+        if (previous != null) delta -= recordBytes(key, previous.length());
+        return delta;
+    }
+
+    private static int recordBytes(String key, int valueLength){
+        return RECORD_OVERHEAD + key.getBytes(StandardCharsets.UTF_8).length + valueLength;
+    }
+
+    private static long writeHeader(FileChannel channel) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES).putInt(MAGIC).putInt(VERSION).flip();
+        writeFully(channel, header, 0);
+        return HEADER_BYTES;
+    }
+
+    private static long append(FileChannel channel, long position, String key, byte[] value, RecordVisitor visitor) throws IOException {
+        byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+        if (keyBytes.length > MAX_KEY_BYTES) throw new IOException("key is longer than " + MAX_KEY_BYTES + " bytes");
+        if (value != null && value.length > MAX_VALUE_BYTES) throw new IOException("value is larger than " + (MAX_VALUE_BYTES >> 20) + " MB");
+        int valueLength = value == null ? -1 : value.length;
+        int recordBytes = RECORD_OVERHEAD + keyBytes.length + Math.max(0, valueLength);
+
+        ByteBuffer record = ByteBuffer.allocate(recordBytes);
+        record.putInt(keyBytes.length).putInt(valueLength).put(keyBytes);
+        if (value != null) record.put(value);
+        CRC32C crc = new CRC32C();
+        crc.update(record.array(), 0, record.position());
+        record.putInt((int) crc.getValue()).flip();
+        writeFully(channel, record, position);
+
+        visitor.visit(key, value, position + 8 + keyBytes.length, recordBytes);
+        return position + recordBytes;
+    }
+
+    /**
+     * Visits the valid records between two positions and returns where the last one ends.
+     */
+    private static long scan(FileChannel channel, long from, long to, RecordVisitor visitor) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(Channels.newInputStream(channel.position(from)), 1 << 16));
+        long position = from;
+        CRC32C crc = new CRC32C();
+        while (to - position >= RECORD_OVERHEAD) {
+            int keyLength = in.readInt();
+            int valueLength = in.readInt();
+            if (keyLength < 0 || keyLength > MAX_KEY_BYTES || valueLength < -1 || valueLength > MAX_VALUE_BYTES) break;
+            int recordBytes = RECORD_OVERHEAD + keyLength + Math.max(0, valueLength);
+            if (to - position < recordBytes) break;
+
+            byte[] body = new byte[8 + keyLength + Math.max(0, valueLength)];
+            in.readFully(body, 8, body.length - 8);
+            ByteBuffer.wrap(body).putInt(keyLength).putInt(valueLength);
+            crc.reset();
+            crc.update(body);
+            if (in.readInt() != (int) crc.getValue()) break;
+
+            String key = new String(body, 8, keyLength, StandardCharsets.UTF_8);
+            byte[] value = valueLength < 0 ? null : Arrays.copyOfRange(body, 8 + keyLength, body.length);
+            visitor.visit(key, value, position + 8 + keyLength, recordBytes);
+            position += recordBytes;
+        }
+        return position;
+    }
+
+    private static byte[] read(FileChannel channel, Slot slot) throws IOException {
+        ByteBuffer value = ByteBuffer.allocate(slot.length());
+        readFully(channel, value, slot.position());
+        return value.array();
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position + buffer.position());
+            if (read < 0) throw new EOFException();
+        }
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer, position + buffer.position());
+        }
+    }
+}
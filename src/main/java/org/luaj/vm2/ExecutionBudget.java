@@ -0,0 +1,308 @@
+package org.luaj.vm2;
+
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Set;
+
+/**
+ * Limits how much work lua code may do before it is aborted with a {@link LuaError}.
+ * <p>
+ * A budget is installed by assigning it to {@link Globals#budget} before calling into lua,
+ * and removing it afterwards.  Work is counted by {@link LuaClosure} when a function is entered
+ * and when a loop jumps backwards, charging the length of the jump, so straight-line code
+ * is never slowed down and an idle {@link Globals} costs a single null check per call.
+ * <p>
+ * The wall clock is only read every {@link #CLOCK_CHECK_INTERVAL} units of work.
+ * Once exceeded, a budget stays exceeded until {@link #start()} is called again,
+ * so a runaway loop cannot keep itself alive by catching the error with {@code pcall}.
+ * <p>
+ * A budget can also cap memory.  Allocations are estimated where they are large or amortized:
+ * when a {@link LuaTable} grows its array or hash part, when a {@link LuaString} of at least
+ * {@link #STRING_CHARGE_THRESHOLD} bytes gets its own storage, and when a closure is created.
+ * Small strings and empty tables are not charged, so the total is a lower bound of what was allocated,
+ * not of what is still reachable.  The count restarts with {@link #start()}, so this cap applies to one call.
+ * Memory a script keeps across calls is capped by an {@link Account} shared by the budgets of all its calls,
+ * see {@link #setAccount(Account)}.  Tables and strings are charged to the budget installed on the
+ * current thread with {@link #install(Globals, ExecutionBudget)}.
+ * <pre> {@code
+ * ExecutionBudget budget = new ExecutionBudget(1000000, 50000000L, 64L << 20);
+ * budget.start();
+ * ExecutionBudget previous = ExecutionBudget.install(globals, budget);
+ * try {
+ *     handler.call();
+ * } finally {
+ *     ExecutionBudget.install(globals, previous);
+ * }
+ * } </pre>
+ *
+ * @see Globals#budget
+ * @see LuaClosure
+ */
+public class ExecutionBudget {
+
+	/** Units of work between two reads of the wall clock. */
+	public static final int CLOCK_CHECK_INTERVAL = 1024;
+
+	/** Strings shorter than this are never charged, keeping the common case free. */
+	public static final int STRING_CHARGE_THRESHOLD = 64;
+
+	/** Approximate bytes of one slot in the array part of a table. */
+	static final int ARRAY_SLOT_BYTES = 16;
+
+	/** Approximate bytes of one slot in the hash part of a table, including its entry. */
+	static final int HASH_SLOT_BYTES = 48;
+
+	/** Approximate bytes of a string object, excluding its characters. */
+	static final int STRING_BYTES = 40;
+
+	/** Approximate bytes of a closure object and each of its upvalues. */
+	static final int CLOSURE_BYTES = 32, UPVALUE_BYTES = 24;
+
+	// Budget charged by allocations made on each thread, mirrors the Globals.budget of the lua code it runs
+	private static final ThreadLocal<ExecutionBudget> ALLOCATING = new ThreadLocal<ExecutionBudget>();
+
+	private final long maxInstructions;
+	private final long maxNanos;
+	private final long maxBytes;
+
+	private long remaining;
+	private long deadline;
+	private int untilClockCheck;
+	private long allocated;
+	private String exceeded;
+	private Account account;
+
+	/**
+	 * Create a budget.
+	 * @param maxInstructions approximate number of instructions allowed, or 0 for no limit
+	 * @param maxNanos wall-clock time allowed in nanoseconds, or 0 for no limit
+	 */
+	public ExecutionBudget(long maxInstructions, long maxNanos) {
+		this(maxInstructions, maxNanos, 0);
+	}
+
+	/**
+	 * Create a budget that also caps memory.
+	 * @param maxInstructions approximate number of instructions allowed, or 0 for no limit
+	 * @param maxNanos wall-clock time allowed in nanoseconds, or 0 for no limit
+	 * @param maxBytes approximate bytes that may be allocated, or 0 for no limit
+	 */
+	public ExecutionBudget(long maxInstructions, long maxNanos, long maxBytes) {
+		this.maxInstructions = maxInstructions;
+		this.maxNanos = maxNanos;
+		this.maxBytes = maxBytes;
+		start();
+	}
+
+	/**
+	 * Install a budget on a Globals and on the calling thread, which must be the thread that runs its lua code.
+	 * @param globals the Globals to set {@link Globals#budget} on
+	 * @param budget the budget to install, or null to remove it
+	 * @return the budget that was installed before, to restore afterwards
+	 */
+	public static ExecutionBudget install(Globals globals, ExecutionBudget budget) {
+		ExecutionBudget previous = globals.budget;
+		globals.budget = budget;
+		ALLOCATING.set(budget);
+		return previous;
+	}
+
+	/** Make the calling thread charge the budget of a Globals, used when a coroutine thread takes over. */
+	static void attach(Globals globals) {
+		ALLOCATING.set(globals.budget);
+	}
+
+	/**
+	 * Charge an allocation to the budget installed on the calling thread, if any.
+	 * @param bytes approximate size of the allocation
+	 * @throws LuaError if the memory budget is exhausted
+	 */
+	public static void allocate(long bytes) {
+		ExecutionBudget budget = ALLOCATING.get();
+		if (budget != null)
+			budget.charge(bytes);
+	}
+
+	/**
+	 * Also charge every allocation to an account kept across calls.
+	 * @param account the account of the script the calls belong to, or null for none
+	 */
+	public void setAccount(Account account) {
+		this.account = account;
+	}
+
+	/** Reset the counters and start the clock. */
+	public void start() {
+		remaining = maxInstructions > 0? maxInstructions: Long.MAX_VALUE;
+		deadline = maxNanos > 0? System.nanoTime() + maxNanos: 0;
+		untilClockCheck = CLOCK_CHECK_INTERVAL;
+		allocated = 0;
+		exceeded = null;
+	}
+
+	/**
+	 * Charge units of work against this budget.
+	 * @param units number of instructions executed or about to be executed
+	 * @throws LuaError if the instruction or time budget is exhausted
+	 */
+	public final void consume(int units) {
+		if ((remaining -= units) < 0 | (untilClockCheck -= units) <= 0)
+			check();
+	}
+
+	/**
+	 * Charge an allocation against this budget.
+	 * @param bytes approximate size of the allocation
+	 * @throws LuaError if the memory budget or the account is exhausted
+	 */
+	public final void charge(long bytes) {
+		// Only the allocation crossing the limit throws.  Afterwards the lua code is stopped by its next
+		// instruction check, while java code building the error value, e.g. a long message, can still allocate.
+		allocated += bytes;
+		if (exceeded != null)
+			return;
+		if (allocated > maxBytes & maxBytes > 0)
+			exceeded = "exceeded memory budget of " + (maxBytes >> 20) + " MB";
+		else if (account != null && account.charge(bytes))
+			exceeded = "exceeded memory limit of " + (account.maxBytes >> 20) + " MB kept by the script";
+		else
+			return;
+		remaining = -1;
+		throw new LuaError(exceeded);
+	}
+
+	/**
+	 * Create a string value without charging the budget installed on the calling thread.
+	 * Used for error messages built by java code after lua code failed, possibly because its budget ran out.
+	 * @param message the text of the value
+	 * @return the string value
+	 */
+	public static LuaValue uncharged(String message) {
+		ExecutionBudget budget = ALLOCATING.get();
+		ALLOCATING.set(null);
+		try {
+			return LuaValue.valueOf(message);
+		} finally {
+			ALLOCATING.set(budget);
+		}
+	}
+
+	/** @return approximate bytes charged since the last {@link #start()} */
+	public long allocatedBytes() {
+		return allocated;
+	}
+
+	/** @return true if this budget has been exhausted since the last {@link #start()} */
+	public boolean isExceeded() {
+		return exceeded != null;
+	}
+
+	private void check() {
+		if (exceeded == null) {
+			untilClockCheck = CLOCK_CHECK_INTERVAL;
+			if (remaining < 0)
+				exceeded = "exceeded instruction budget of " + maxInstructions;
+			else if (deadline != 0 && System.nanoTime() - deadline > 0)
+				exceeded = "exceeded time budget of " + (maxNanos / 1000000) + " ms";
+			else
+				return;
+		}
+		// keep every later call failing until the budget is restarted
+		remaining = -1;
+		throw new LuaError(exceeded);
+	}
+
+	/**
+	 * Memory one script keeps across calls, charged by the budgets of all of them.
+	 * <p>
+	 * The account adds up what the calls charged.  When the total crosses the limit, {@link #measure()} counts
+	 * what the script can still reach, so garbage left by earlier calls is not held against it, and the total
+	 * restarts from that count.  Only if the count is over the limit as well does the charging call fail, and
+	 * every later call of the script fails on its first allocation until its memory is released again.
+	 * Between two counts the script may allocate at least half the limit, so what it keeps can run over
+	 * the limit by up to half of it before the next count catches it.
+	 */
+	public static abstract class Account {
+
+		private final long maxBytes;
+		private long charged;
+		private long retained;
+
+		/** @param maxBytes approximate bytes the script may keep, or 0 for no limit */
+		protected Account(long maxBytes) {
+			this.maxBytes = maxBytes;
+		}
+
+		/**
+		 * Count the memory the script can still reach, usually with {@link ExecutionBudget#reachableBytes}.
+		 * @return approximate bytes reachable from the script
+		 */
+		protected abstract long measure();
+
+		// true if the script keeps more than the limit
+		final boolean charge(long bytes) {
+			if ((charged += bytes) <= maxBytes || maxBytes <= 0)
+				return false;
+			retained = measure();
+			// count again after at least half the limit more was allocated, or on the next allocation while over it
+			charged = retained > maxBytes? retained: Math.min(retained, maxBytes / 2);
+			return retained > maxBytes;
+		}
+
+		/** @return approximate bytes the script could reach when it was last counted */
+		public long retainedBytes() {
+			return retained;
+		}
+	}
+
+	/**
+	 * Estimate the memory reachable from some values the way allocations are charged: the slots of tables,
+	 * strings of at least {@link #STRING_CHARGE_THRESHOLD} bytes, and closures with their upvalues.
+	 * Read-only views, userdata and coroutines are not followed.
+	 * @param roots values to start from
+	 * @param excluded tables not to follow, e.g. those shared by every script
+	 * @return approximate bytes reachable from the roots
+	 */
+	public static long reachableBytes(Collection<? extends LuaValue> roots, Collection<? extends LuaValue> excluded) {
+		Set<LuaValue> seen = Collections.newSetFromMap(new IdentityHashMap<LuaValue, Boolean>());
+		seen.addAll(excluded);
+		ArrayDeque<LuaValue> pending = new ArrayDeque<LuaValue>(roots);
+		long bytes = 0;
+		while (!pending.isEmpty()) {
+			LuaValue value = pending.pop();
+			if (!seen.add(value))
+				continue;
+			if (value instanceof ReadOnlyTable) {
+				continue;
+			} else if (value instanceof LuaTable) {
+				LuaTable table = (LuaTable) value;
+				bytes += (long) table.array.length * ARRAY_SLOT_BYTES + (long) table.hash.length * HASH_SLOT_BYTES;
+				for (LuaValue k = LuaValue.NIL; !(k = table.next(k).arg1()).isnil(); ) {
+					push(pending, k);
+					push(pending, table.rawget(k));
+				}
+				LuaValue metatable = table.getmetatable();
+				if (metatable != null)
+					push(pending, metatable);
+			} else if (value instanceof LuaString) {
+				LuaString string = (LuaString) value;
+				if (string.m_length >= STRING_CHARGE_THRESHOLD && string.m_offset == 0 && string.m_length == string.m_bytes.length)
+					bytes += STRING_BYTES + string.m_length;
+			} else if (value instanceof LuaClosure) {
+				UpValue[] upValues = ((LuaClosure) value).upValues;
+				bytes += CLOSURE_BYTES + (long) upValues.length * UPVALUE_BYTES;
+				for (UpValue upValue : upValues)
+					if (upValue != null)
+						push(pending, upValue.getValue());
+			}
+		}
+		return bytes;
+	}
+
+	private static void push(ArrayDeque<LuaValue> pending, LuaValue value) {
+		if (value instanceof LuaTable || value instanceof LuaClosure || value instanceof LuaString && ((LuaString) value).m_length >= STRING_CHARGE_THRESHOLD)
+			pending.push(value);
+	}
+}
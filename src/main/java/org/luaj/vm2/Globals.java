@@ -138,10 +138,20 @@ public class Globals extends LuaTable {
 	/** The DebugLib instance loaded into this Globals, or null if debugging is not enabled */
 	public DebugLib debuglib;
 
+	/** The ExecutionBudget charged by lua code running in this Globals, or null for no limit.
+	 * @see ExecutionBudget */
+	public ExecutionBudget budget;
+
 	/** Interface for module that converts a Prototype into a LuaFunction with an environment. */
 	public interface Loader {
 		/** Convert the prototype into a LuaFunction with the supplied environment. */
 		LuaFunction load(Prototype prototype, String chunkname, LuaValue env) throws IOException;
+
+		/** Convert the prototype into a LuaFunction with the supplied environment,
+		 * running in the supplied Globals even when the environment is a different table. */
+		default LuaFunction load(Prototype prototype, String chunkname, LuaValue env, Globals globals) throws IOException {
+			return load(prototype, chunkname, env);
+		}
 	}
 
 	/** Interface for module that converts lua source text into a prototype. */
@@ -252,7 +262,7 @@ public class Globals extends LuaTable {
 	public LuaValue load(InputStream is, String chunkname, String mode, LuaValue environment) {
 		try {
 			Prototype p = loadPrototype(is, chunkname, mode);
-			return loader.load(p, chunkname, environment);
+			return loader.load(p, chunkname, environment, this);
 		} catch (LuaError l) {
 			throw l;
 		} catch (Exception e) {
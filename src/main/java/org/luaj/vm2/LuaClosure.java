@@ -96,6 +96,18 @@ public class LuaClosure extends LuaFunction {
 	 * @param env the environment to associate with the closure.
 	 */
 	public LuaClosure(Prototype p, LuaValue env) {
+		this(p, env, env instanceof Globals? (Globals) env: null);
+	}
+	
+	/** Create a closure around a Prototype with an environment that is not the {@link Globals} itself,
+	 * such as a sandbox table whose metatable falls back to the globals.
+	 * The closure, and every closure created by it, still reports to the supplied Globals
+	 * for debugging, coroutines and {@link Globals#budget}.
+	 * @param p the Prototype to construct this Closure for. 
+	 * @param env the environment to associate with the closure.
+	 * @param globals the Globals the closure runs in, or null
+	 */
+	public LuaClosure(Prototype p, LuaValue env, Globals globals) {
 		this.p = p;
 		if (p.upvalues == null || p.upvalues.length == 0)
 			this.upValues = NOUPVALUES;
@@ -103,7 +115,7 @@ public class LuaClosure extends LuaFunction {
 			this.upValues = new UpValue[p.upvalues.length];
 			this.upValues[0] = new UpValue(new LuaValue[] {env}, 0);
 		}
-		globals = env instanceof Globals? (Globals) env: null;	
+		this.globals = globals;
 	}
 	
 	public boolean isclosure() {
@@ -190,6 +202,11 @@ public class LuaClosure extends LuaFunction {
 		// TODO: use linked list.
 		UpValue[] openups = p.p.length>0? new UpValue[stack.length]: null;
 		
+		// charge calls and backward jumps against the execution budget, if any
+		final ExecutionBudget budget = globals != null? globals.budget: null;
+		if (budget != null)
+			budget.consume(1);
+
 		// allow for debug hooks
 		if (globals != null && globals.debuglib != null)
 			globals.debuglib.onCall( this, varargs, stack ); 
@@ -311,7 +328,9 @@ public class LuaClosure extends LuaFunction {
 					continue;
 					
 				case Lua.OP_JMP: /*	sBx	pc+=sBx					*/
-					pc  += (i>>>14)-0x1ffff;
+					pc  += (b=(i>>>14)-0x1ffff);
+					if (b < 0 && budget != null)
+						budget.consume(-b);
 					if (a > 0) {
 						for (--a, b = openups.length; --b>=0; )
 							if (openups[b] != null && openups[b].index >= a) {
@@ -409,7 +428,9 @@ public class LuaClosure extends LuaFunction {
 			            if (step.gt_b(0)? idx.lteq_b(limit): idx.gteq_b(limit)) {
 		                    stack[a] = idx;
 		                    stack[a + 3] = idx;
-		                    pc += (i>>>14)-0x1ffff;
+		                    pc += (b=(i>>>14)-0x1ffff);
+		                    if (budget != null)
+		                    	budget.consume(-b);
 			            }
 					}
 					continue;
@@ -437,7 +458,9 @@ public class LuaClosure extends LuaFunction {
 				case Lua.OP_TFORLOOP: /* A sBx	if R(A+1) ~= nil then { R(A)=R(A+1); pc += sBx */
 					if (!stack[a+1].isnil()) { /* continue loop? */
 						stack[a] = stack[a+1];  /* save control varible. */
-						pc += (i>>>14)-0x1ffff;
+						pc += (b=(i>>>14)-0x1ffff);
+						if (budget != null)
+							budget.consume(-b);
 					}
 					continue;
 					
@@ -466,6 +489,8 @@ public class LuaClosure extends LuaFunction {
 				case Lua.OP_CLOSURE: /*	A Bx	R(A):= closure(KPROTO[Bx])	*/
 					{
 						Prototype newp = p.p[i>>>14];
+						if (budget != null)
+							budget.charge(ExecutionBudget.CLOSURE_BYTES + newp.upvalues.length * ExecutionBudget.UPVALUE_BYTES);
 						LuaClosure ncl = new LuaClosure(newp, globals);
 						Upvaldesc[] uv = newp.upvalues;
 						for ( int j=0, nup=uv.length; j<nup; ++j ) {
@@ -234,6 +234,9 @@ public class LuaString extends LuaValue {
 	 * @return {@link LuaString} wrapping the byte buffer
 	 */
 	private LuaString(byte[] bytes, int offset, int length) {
+		// Only strings that own their whole backing array are charged, substrings share it
+		if (length >= ExecutionBudget.STRING_CHARGE_THRESHOLD && offset == 0 && length == bytes.length)
+			ExecutionBudget.allocate(ExecutionBudget.STRING_BYTES + length);
 		this.m_bytes = bytes;
 		this.m_offset = offset;
 		this.m_length = length;
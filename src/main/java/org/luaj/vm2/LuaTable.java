@@ -165,16 +165,23 @@ public class LuaTable extends LuaValue implements Metatable {
 	}
 	
 	public void presize( int narray ) {
-		if ( narray > array.length )
-			array = resize( array, 1 << log2(narray) );
+		if ( narray > array.length ) {
+			int n = 1 << log2(narray);
+			ExecutionBudget.allocate((long) (n - array.length) * ExecutionBudget.ARRAY_SLOT_BYTES);
+			array = resize( array, n );
+		}
 	}
 
 	public void presize(int narray, int nhash) {
 		if ( nhash > 0 && nhash < MIN_HASH_CAPACITY )
 			nhash = MIN_HASH_CAPACITY;
 		// Size of both parts must be a power of two.
-		array = (narray>0? new LuaValue[1 << log2(narray)]: NOVALS);
-		hash = (nhash>0? new Slot[1 << log2(nhash)]: NOBUCKETS);
+		narray = narray>0? 1 << log2(narray): 0;
+		nhash = nhash>0? 1 << log2(nhash): 0;
+		if ( narray + nhash > 0 )
+			ExecutionBudget.allocate((long) narray * ExecutionBudget.ARRAY_SLOT_BYTES + (long) nhash * ExecutionBudget.HASH_SLOT_BYTES);
+		array = (narray>0? new LuaValue[narray]: NOVALS);
+		hash = (nhash>0? new Slot[nhash]: NOBUCKETS);
 		hashEntries = 0;
 	}
 
@@ -699,13 +706,18 @@ public class LuaTable extends LuaValue implements Metatable {
 				? MIN_HASH_CAPACITY
 				: 1 << log2(newHashSize);
 			newHashMask = newCapacity - 1;
-			newHash = new Slot[ newCapacity ];
 		} else {
 			newCapacity = 0;
 			newHashMask = 0;
-			newHash = NOBUCKETS;
 		}
 
+		// Charge growth before anything is moved, so a memory error leaves the table intact
+		long grown = (long) Math.max(0, newArraySize - oldArray.length) * ExecutionBudget.ARRAY_SLOT_BYTES
+			+ (long) Math.max(0, newCapacity - oldCapacity) * ExecutionBudget.HASH_SLOT_BYTES;
+		if (grown > 0)
+			ExecutionBudget.allocate(grown);
+		newHash = newCapacity > 0? new Slot[ newCapacity ]: NOBUCKETS;
+
 		// Move hash buckets
 		for ( int i = 0; i < oldCapacity; ++i ) {
 			for ( Slot slot = oldHash[i]; slot != null; slot = slot.rest() ) {
@@ -193,6 +193,7 @@ public class LuaThread extends LuaValue {
 		
 		public synchronized void run() {
 			try {
+				ExecutionBudget.attach(globals);
 				Varargs a = this.args;
 				this.args = LuaValue.NONE;
 				this.result = function.invoke(a);
@@ -220,7 +221,7 @@ public class LuaThread extends LuaValue {
 				this.status = STATUS_RUNNING;
 				this.wait();
 				return (this.error != null? 
-					LuaValue.varargsOf(LuaValue.FALSE, LuaValue.valueOf(this.error)):
+					LuaValue.varargsOf(LuaValue.FALSE, ExecutionBudget.uncharged(this.error)):
 					LuaValue.varargsOf(LuaValue.TRUE, this.result));
 			} catch (InterruptedException ie) {
 				throw new OrphanedThread();
@@ -246,6 +247,8 @@ public class LuaThread extends LuaValue {
 						throw new OrphanedThread();
 					}
 				} while (this.status == STATUS_SUSPENDED);
+				// the resumer may have installed a different budget meanwhile
+				ExecutionBudget.attach(globals);
 				return this.args;
 			} catch (InterruptedException ie) {
 				this.status = STATUS_DEAD;
@@ -0,0 +1,98 @@
+package org.luaj.vm2;
+
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+/**
+ * Read-only view of a {@link LuaTable}.
+ * <p>
+ * Reads through the view, including {@code rawget}, {@code next} and the length operator, see the current
+ * contents of the wrapped table, while every write and {@code setmetatable} raise a {@link LuaError}.
+ * Tables read through a view are returned as views too, so nested tables such as {@code package.loaded.math}
+ * are protected as well.  The views created from one root view are cached, so reading the same table twice
+ * returns the same view and {@code ==} holds between them.
+ * <pre> {@code
+ * ReadOnlyTable libraries = new ReadOnlyTable(globals, "_G");
+ * LuaValue string = libraries.view(globals.get("string"), "string");
+ * } </pre>
+ */
+public class ReadOnlyTable extends LuaTable {
+
+	private final LuaTable table;
+	private final String name;
+	// Views of one family by the table they wrap, shared by every thread reading through them
+	private final Map<LuaTable, ReadOnlyTable> views;
+
+	/**
+	 * Create the root view of a new family.
+	 * @param table the table to wrap
+	 * @param name name of the table used in error messages
+	 */
+	public ReadOnlyTable(LuaTable table, String name) {
+		this(table, name, Collections.synchronizedMap(new IdentityHashMap<LuaTable, ReadOnlyTable>()));
+	}
+
+	private ReadOnlyTable(LuaTable table, String name, Map<LuaTable, ReadOnlyTable> views) {
+		this.table = table;
+		this.name = name;
+		this.views = views;
+		views.put(table, this);
+	}
+
+	/**
+	 * Return a value as it is seen through this family of views.
+	 * @param value any value
+	 * @param name name of the value used in error messages when it is a table seen for the first time
+	 * @return the value itself unless it is a table, otherwise the read-only view of the table
+	 */
+	public LuaValue view(LuaValue value, String name) {
+		if (!(value instanceof LuaTable) || value instanceof ReadOnlyTable)
+			return value;
+		synchronized (views) {
+			ReadOnlyTable view = views.get(value);
+			return view != null ? view : new ReadOnlyTable((LuaTable) value, name, views);
+		}
+	}
+
+	private LuaValue child(LuaValue key, LuaValue value) {
+		return value instanceof LuaTable ? view(value, name + "." + key.tojstring()) : value;
+	}
+
+	private LuaError readOnly(LuaValue key) {
+		return new LuaError("cannot change '" + name + "." + key.tojstring() + "', the table is read-only");
+	}
+
+	public LuaValue get( int key ) { return child(valueOf(key), table.get(key)); }
+	public LuaValue get( LuaValue key ) { return child(key, table.get(key)); }
+	public LuaValue rawget( int key ) { return child(valueOf(key), table.rawget(key)); }
+	public LuaValue rawget( LuaValue key ) { return child(key, table.rawget(key)); }
+
+	public void set( int key, LuaValue value ) { throw readOnly(valueOf(key)); }
+	public void set( LuaValue key, LuaValue value ) { throw readOnly(key); }
+	public void rawset( int key, LuaValue value ) { throw readOnly(valueOf(key)); }
+	public void rawset( LuaValue key, LuaValue value ) { throw readOnly(key); }
+	public void hashset( LuaValue key, LuaValue value ) { throw readOnly(key); }
+	public LuaValue remove( int pos ) { throw readOnly(valueOf(pos)); }
+	public void insert( int pos, LuaValue value ) { throw readOnly(valueOf(pos)); }
+	public void sort( LuaValue comparator ) { throw new LuaError("cannot sort '" + name + "', the table is read-only"); }
+
+	public LuaValue getmetatable() {
+		LuaValue metatable = table.getmetatable();
+		return metatable != null ? view(metatable, name + " metatable") : null;
+	}
+
+	public LuaValue setmetatable( LuaValue metatable ) {
+		throw new LuaError("cannot change the metatable of '" + name + "', the table is read-only");
+	}
+
+	public int length() { return table.length(); }
+	public LuaValue len() { return table.len(); }
+	public int rawlen() { return table.rawlen(); }
+
+	public Varargs next( LuaValue key ) {
+		Varargs next = table.next(key);
+		LuaValue k = next.arg1();
+		return k.isnil() ? NIL : varargsOf(k, child(k, next.arg(2)));
+	}
+}
@@ -103,6 +103,10 @@ public class LuaC extends Constants implements Globals.Compiler, Globals.Loader
 		return new LuaClosure(prototype, env);
 	}
 
+	public LuaFunction load(Prototype prototype, String chunkname, LuaValue env, Globals globals) throws IOException {
+		return new LuaClosure(prototype, env, globals);
+	}
+
 	/** @deprecated
 	 * Use Globals.load(InputString, String, String) instead, 
 	 * or LuaC.compile(InputStream, String) and construct LuaClosure directly.
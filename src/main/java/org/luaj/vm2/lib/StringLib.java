@@ -24,11 +24,13 @@ package org.luaj.vm2.lib;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 
+import org.luaj.vm2.Globals;
 import org.luaj.vm2.LuaClosure;
 import org.luaj.vm2.Buffer;
 import org.luaj.vm2.LuaString;
 import org.luaj.vm2.LuaTable;
 import org.luaj.vm2.LuaValue;
+import org.luaj.vm2.ReadOnlyTable;
 import org.luaj.vm2.Varargs;
 import org.luaj.vm2.compiler.DumpState;
 
@@ -72,12 +74,12 @@ public class StringLib extends TwoArgFunction {
 	 * adding the table to package.loaded, and returning table as the return value.
 	 * Creates a metatable that uses __INDEX to fall back on itself to support string
 	 * method operations.
-	 * If the shared strings metatable instance is null, will set the metatable as
-	 * the global shared metatable for strings.
+	 * If the shared strings metatable instance is null, will set a read-only view of the metatable as
+	 * the global shared metatable for strings, see {@link ReadOnlyTable}, since it is shared by every
+	 * {@link Globals} of the JVM.
 	 * <P>
-	 * All tables and metatables are read-write by default so if this will be used in 
-	 * a server environment, sandboxing should be used.  In particular, the 
-	 * {@link LuaString#s_metatable} table should probably be made read-only.
+	 * All other tables are read-write by default so if this will be used in 
+	 * a server environment, sandboxing should be used.
 	 * @param modname the module name supplied if this is loaded via 'require'.
 	 * @param env the environment to load into, typically a Globals instance.
 	 */
@@ -102,7 +104,7 @@ public class StringLib extends TwoArgFunction {
 		env.set("string", string);
 		env.get("package").get("loaded").set("string", string);
 		if (LuaString.s_metatable == null)
-			LuaString.s_metatable = mt;
+			LuaString.s_metatable = new ReadOnlyTable(mt, "string metatable");
 		return string;
 	}
 	